@@ -0,0 +1,666 @@
+package com.example.concurrentprogramming.chapter6;
+
+import com.example.concurrentprogramming.timer.HashedWheelTimer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于AQS实现的不可重入的独占锁
+ * 由于是不可重入的独占锁，这里自定义state的含义，state为0 表示锁没有被线程持有，state为1 表示锁已经被某个线程池有
+ * 由于是不可重入，无需记录持有锁的线程的重入次数，另外，这个自定义的锁支持条件变量
+ * <p>
+ * 支持三种公平性策略(FairnessPolicy): 非公平插队(默认)、严格先进先出、有界插队
+ * <p>
+ * 支持异步获取锁 lockAsync(executor): 不阻塞调用线程，获取到锁之后在executor上完成返回的CompletableFuture
+ * ---> 异步等待者不进入AQS队列，而是在单独的队列中排队，释放锁时 state保持为1，锁直接交给下一个异步等待者
+ * ---> 阻塞等待者与异步等待者同时存在时，释放锁时轮流交给两边，任何一边都不会被饿死
+ * ---> 交接只在AQS的release返回之后进行(unlock()、条件变量await释放锁都经过unlock())，不在tryRelease中嵌套执行
+ * <p>
+ * 超时获取锁可以交给时间轮定时器 tryLock(time, unit, timer)，等待线程不再各自定时park
+ *
+ * @author CZS
+ * @create 2023-04-09 14:23
+ **/
+public class NoReentrantLock implements Lock, Serializable {
+    private static final long serialVersionUID = 7373984872572414699L;
+
+    // BOUNDED_BARGING 默认允许队首线程被插队的次数
+    public static final int DEFAULT_MAX_BYPASSES = 8;
+    // BOUNDED_BARGING 默认允许队首线程等待的时间
+    public static final long DEFAULT_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 公平性策略
+     */
+    public enum FairnessPolicy {
+        /**
+         * 非公平，获取锁时直接CAS，不管队列中有没有等待的线程(吞吐量最高，尾延迟没有上界)
+         */
+        BARGING,
+        /**
+         * 严格先进先出，队列中有等待的线程时新来的线程直接排队
+         */
+        FIFO,
+        /**
+         * 有界插队，允许插队，但队首线程被插队次数过多或者等待时间过长时禁止插队，锁直接交给队首线程
+         */
+        BOUNDED_BARGING
+    }
+
+    /**
+     * 创建一个内部类Sync对象进行具体的锁的操作（操作state值）
+     */
+    private final Sync sync;
+
+    /**
+     * 异步等待者队列
+     */
+    private transient Queue<AsyncWaiter> asyncWaiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 阻塞等待者与异步等待者同时存在时，这次是否轮到阻塞等待者，只在持有锁时读写
+     */
+    private transient boolean blockingTurn;
+
+    /**
+     * 默认非公平(BARGING)
+     */
+    public NoReentrantLock() {
+        this(FairnessPolicy.BARGING);
+    }
+
+    public NoReentrantLock(FairnessPolicy policy) {
+        this(policy, DEFAULT_MAX_BYPASSES, DEFAULT_MAX_WAIT_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 有界插队(BOUNDED_BARGING)
+     *
+     * @param maxBypasses 队首线程最多被插队的次数
+     * @param maxWait     队首线程最长等待时间
+     * @param unit
+     */
+    public NoReentrantLock(int maxBypasses, long maxWait, TimeUnit unit) {
+        this(FairnessPolicy.BOUNDED_BARGING, maxBypasses, maxWait, unit);
+    }
+
+    private NoReentrantLock(FairnessPolicy policy, int maxBypasses, long maxWait, TimeUnit unit) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        if (maxBypasses < 0 || maxWait < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.sync = new Sync(policy, maxBypasses, unit.toNanos(maxWait));
+    }
+
+    @Override
+    public void lock() {
+        // 调用AQS的acquire(int arg)方法，实际调用Sync的自定义tryAcquire(int acquires)方法
+        sync.acquire(1);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        // 调用AQS的acquireInterruptibly(int arg)方法，实际有调用Sync的自定义tryAcquire(int acquires)方法
+        try {
+            sync.acquireInterruptibly(1);
+        } catch (InterruptedException e) {
+            // 放弃排队后可能已经没有阻塞等待者，检查是否需要把锁交给异步等待者
+            signalAsyncWaiters();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        // 调用Sync的自定义tryAcquire(int acquires)方法
+        return sync.tryAcquire(1);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        // 调用AQS的tryAcquireNanos(int arg, long nanosTimeout)方法，实际有调用Sync的自定义tryAcquire(int acquires)方法
+        boolean acquired;
+        try {
+            acquired = sync.tryAcquireNanos(1, unit.toNanos(time));
+        } catch (InterruptedException e) {
+            signalAsyncWaiters();
+            throw e;
+        }
+        if (!acquired) {
+            // 超时放弃排队后可能已经没有阻塞等待者，检查是否需要把锁交给异步等待者
+            signalAsyncWaiters();
+        }
+        return acquired;
+    }
+
+    /**
+     * 超时获取锁，超时由时间轮定时器负责，而不是每个等待线程各自定时park
+     * 等待的线程作为异步等待者排队，只做一次不带超时的park；到期时由定时线程取消等待
+     * ---> 大量线程同时超时等待时，定时的开销是时间轮O(1)的插入和取消
+     * 超时精度为定时器的一个tick
+     *
+     * @param time
+     * @param unit
+     * @param timer 负责超时的时间轮定时器
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean tryLock(long time, TimeUnit unit, HashedWheelTimer timer) throws InterruptedException {
+        if (timer == null) {
+            throw new NullPointerException();
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (sync.tryAcquire(1)) {
+            return true;
+        }
+        if (time <= 0) {
+            return false;
+        }
+        // 在释放锁的线程上完成future，等待线程被直接唤醒
+        CompletableFuture<Void> future = lockAsync(Runnable::run);
+        HashedWheelTimer.Timeout timeout;
+        try {
+            timeout = timer.newTimeout(() -> future.cancel(false), time, unit);
+        } catch (RuntimeException | Error e) {
+            // 定时器已停止等原因无法定时，撤回排队；取消失败说明已经拿到锁，释放掉，否则锁会交给一个没有人等待的future
+            if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+                unlock();
+            }
+            throw e;
+        }
+        try {
+            future.get();
+            timeout.cancel();
+            return true;
+        } catch (CancellationException e) {
+            // 超时
+            return false;
+        } catch (ExecutionException e) {
+            timeout.cancel();
+            return false;
+        } catch (InterruptedException e) {
+            timeout.cancel();
+            // 取消失败说明已经拿到锁，释放掉
+            if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+                unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 异步获取锁，不阻塞调用线程
+     * 获取到锁之后，在executor上完成返回的CompletableFuture，之后由任意线程调用unlock()释放锁
+     * 如果在获取到锁之前取消了返回的CompletableFuture，则放弃获取；executor拒绝执行时以异常完成
+     *
+     * @param executor 完成回调所在的执行器
+     * @return
+     */
+    public CompletableFuture<Void> lockAsync(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        AsyncWaiter waiter = new AsyncWaiter(executor);
+        if (sync.tryAcquire(1)) {
+            // 锁空闲，直接获取
+            if (!grant(waiter)) {
+                sync.release(1);
+                signalAsyncWaiters();
+            }
+            return waiter.future;
+        }
+        // (1)先入队
+        asyncWaiters.add(waiter);
+        // (2)再检查一次，避免持有者在入队之前就已经释放了锁，而导致没有人来唤醒
+        signalAsyncWaiters();
+        return waiter.future;
+    }
+
+    @Override
+    public void unlock() {
+        if (!sync.isHeldExclusively()) {
+            throw new IllegalMonitorStateException();
+        }
+        // 有异步等待者并且轮到异步等待者，直接把锁交给它，state保持为1
+        if (hasAsyncWaiters() && takeAsyncTurn() && handOffToAsyncWaiter()) {
+            return;
+        }
+        // 调用AQS的release(int arg)方法，实际调用Sync的自定义tryRelease(int releases)方法
+        sync.release(1);
+        // release返回之后，state为0，检查是否需要把锁交给异步等待者
+        signalAsyncWaiters();
+    }
+
+    /**
+     * 条件变量，await通过unlock()释放锁，释放之后同样会把锁交给异步等待者
+     *
+     * @return
+     */
+    @Override
+    public Condition newCondition() {
+        return new LockCondition();
+    }
+
+    public boolean isLocked() {
+        return sync.isHeldExclusively();
+    }
+
+    public FairnessPolicy getFairnessPolicy() {
+        return sync.policy;
+    }
+
+    /**
+     * 异步等待者
+     */
+    private static final class AsyncWaiter {
+        final Executor executor;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        AsyncWaiter(Executor executor) {
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * 是否有有效的异步等待者，先丢弃队首已经超时或取消的等待者
+     * ---> tryLock(time, unit, timer) 超时的等待者不会参与轮流，不会让阻塞等待者白白让出一次
+     * 持有锁时调用(只有持有锁的线程从队首取出)
+     *
+     * @return
+     */
+    private boolean hasAsyncWaiters() {
+        AsyncWaiter head;
+        while ((head = asyncWaiters.peek()) != null) {
+            if (!head.future.isDone()) {
+                return true;
+            }
+            asyncWaiters.poll();
+        }
+        return false;
+    }
+
+    /**
+     * 阻塞等待者与异步等待者同时存在时轮流交接，只有异步等待者时总是交给异步等待者
+     * 持有锁时调用
+     *
+     * @return 这次是否交给异步等待者
+     */
+    private boolean takeAsyncTurn() {
+        if (!sync.hasQueuedThreads()) {
+            return true;
+        }
+        blockingTurn = !blockingTurn;
+        return !blockingTurn;
+    }
+
+    /**
+     * 把持有的锁交给队列中第一个有效的异步等待者
+     * 持有锁时调用
+     *
+     * @return 没有有效的异步等待者时返回false，锁仍由当前调用者持有
+     */
+    private boolean handOffToAsyncWaiter() {
+        AsyncWaiter waiter;
+        while ((waiter = asyncWaiters.poll()) != null) {
+            if (grant(waiter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在waiter的executor上完成future，锁的所有权转移给该异步等待者
+     *
+     * @param waiter
+     * @return 已被取消或者executor拒绝执行时返回false
+     */
+    private boolean grant(AsyncWaiter waiter) {
+        if (waiter.future.isDone()) {
+            return false;
+        }
+        sync.clearOwner();
+        try {
+            waiter.executor.execute(() -> {
+                // 交接过程中被取消了，释放锁
+                if (!waiter.future.complete(null)) {
+                    unlock();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            waiter.future.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * 锁空闲、有异步等待者、并且没有阻塞等待者时，代替异步等待者获取锁并交给它
+     * 有阻塞等待者时不需要处理，阻塞等待者获取锁之后释放时会交接
+     * 在release返回之后调用，循环而不是递归: 交接失败时释放锁后回到循环开头再检查
+     */
+    private void signalAsyncWaiters() {
+        while (!asyncWaiters.isEmpty() && !sync.hasQueuedThreads() && sync.tryAcquire(1)) {
+            if (handOffToAsyncWaiter()) {
+                return;
+            }
+            // 异步等待者已被别人处理或者都已取消，释放锁后再检查一次
+            sync.release(1);
+        }
+    }
+
+    /**
+     * 反序列化之后是未加锁的状态，没有等待者
+     */
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        asyncWaiters = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * 条件变量
+     * 不使用AQS的ConditionObject: 它在AQS内部释放锁，await释放锁之后没有机会把锁交给异步等待者
+     * 这里await先入队，再通过unlock()释放锁(与普通的释放锁走同一条交接路径)，被signal唤醒之后通过lock()重新获取锁
+     */
+    private final class LockCondition implements Condition {
+        private final Queue<ConditionNode> waiters = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void await() throws InterruptedException {
+            doAwait(true, false, 0L);
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            try {
+                doAwait(false, false, 0L);
+            } catch (InterruptedException e) {
+                // 不可中断的等待不会抛出
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            return doAwait(true, true, nanosTimeout);
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            return doAwait(true, true, unit.toNanos(time)) > 0;
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(deadline.getTime() - System.currentTimeMillis());
+            return doAwait(true, true, nanos) > 0;
+        }
+
+        @Override
+        public void signal() {
+            if (!sync.isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            ConditionNode node;
+            while ((node = waiters.poll()) != null) {
+                // 跳过已经超时或者被中断的等待者
+                if (node.signal()) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (!sync.isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            ConditionNode node;
+            while ((node = waiters.poll()) != null) {
+                node.signal();
+            }
+        }
+
+        /**
+         * @param interruptible 是否响应中断
+         * @param timed         是否有超时
+         * @param nanos         超时时间
+         * @return 剩余的超时时间，<= 0 表示已经超时
+         * @throws InterruptedException
+         */
+        private long doAwait(boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+            if (interruptible && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!sync.isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            // (1)持有锁时入队，signal也需要持有锁，不会错过
+            ConditionNode node = new ConditionNode(Thread.currentThread());
+            waiters.add(node);
+            // (2)释放锁，release返回之后可能把锁交给异步等待者
+            unlock();
+            long deadline = timed ? System.nanoTime() + nanos : 0L;
+            boolean cancelledByInterrupt = false;
+            boolean interrupted = false;
+            while (node.isWaiting()) {
+                if (timed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        // 超时，取消失败说明已经被signal
+                        if (node.cancel()) {
+                            waiters.remove(node);
+                        }
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+                if (Thread.interrupted()) {
+                    if (interruptible && node.cancel()) {
+                        waiters.remove(node);
+                        cancelledByInterrupt = true;
+                        break;
+                    }
+                    // 已经被signal 或者 不响应中断，返回之前恢复中断标志
+                    interrupted = true;
+                }
+            }
+            // (3)重新获取锁之后才返回
+            lock();
+            if (cancelledByInterrupt) {
+                throw new InterruptedException();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return timed ? deadline - System.nanoTime() : 0L;
+        }
+    }
+
+    /**
+     * 条件变量的等待者，signal与超时/中断通过CAS竞争，只有一方成功
+     */
+    private static final class ConditionNode {
+        static final int WAITING = 0;
+        static final int SIGNALLED = 1;
+        static final int CANCELLED = 2;
+
+        final Thread thread;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+
+        ConditionNode(Thread thread) {
+            this.thread = thread;
+        }
+
+        boolean isWaiting() {
+            return state.get() == WAITING;
+        }
+
+        boolean signal() {
+            if (state.compareAndSet(WAITING, SIGNALLED)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+    }
+
+    /**
+     * 内部帮助类，用来进行具体的锁的操作（操作state值）
+     */
+    private static class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = -2305826146834912783L;
+
+        final FairnessPolicy policy;
+        final int maxBypasses;
+        final long maxWaitNanos;
+
+        // BOUNDED_BARGING: 当前被跟踪的队首线程、成为队首的时间、被插队的次数
+        // 只在持有锁时修改，未持有锁的线程只读，读到稍旧的值只会让插队判断晚一次生效
+        private transient volatile Thread firstWaiter;
+        private transient volatile long firstWaiterSince;
+        private transient volatile int bypasses;
+
+        Sync(FairnessPolicy policy, int maxBypasses, long maxWaitNanos) {
+            this.policy = policy;
+            this.maxBypasses = maxBypasses;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        /**
+         * 锁是否已经被持有
+         *
+         * @return
+         */
+        protected boolean isHeldExclusively() {
+            // AQS的getState()方法
+            return getState() == 1;
+        }
+
+        /**
+         * 如果state为0，则尝试CAS获取锁
+         *
+         * @param acquires the acquire argument. This value is always the one
+         *                 passed to an acquire method, or is the value saved on entry
+         *                 to a condition wait.  The value is otherwise uninterpreted
+         *                 and can represent anything you like.
+         * @return
+         */
+        public boolean tryAcquire(int acquires) {
+            assert acquires == 1;
+            // 根据公平性策略判断是否允许插队，不允许则去排队
+            if (policy != FairnessPolicy.BARGING && hasQueuedPredecessors() && !mayBarge()) {
+                return false;
+            }
+            // AQS的CAS设置state方法，设置成功，说明当前线程获取到锁
+            if (compareAndSetState(0, 1)) {
+                // AQS的设置当前独占线程的方法
+                setExclusiveOwnerThread(Thread.currentThread());
+                if (policy == FairnessPolicy.BOUNDED_BARGING) {
+                    trackFirstWaiter();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 队列中有其他线程在等待时，当前线程是否还允许插队
+         * FIFO: 不允许
+         * BOUNDED_BARGING: 队首线程被插队次数和等待时间都没有超过阈值时允许
+         *
+         * @return
+         */
+        private boolean mayBarge() {
+            if (policy == FairnessPolicy.FIFO) {
+                return false;
+            }
+            Thread first = firstWaiter;
+            if (first == null || first != getFirstQueuedThread()) {
+                // 队首线程刚发生变化，还没开始计数
+                return true;
+            }
+            return bypasses < maxBypasses && System.nanoTime() - firstWaiterSince < maxWaitNanos;
+        }
+
+        /**
+         * 获取到锁之后更新队首线程的跟踪信息(持有锁，无竞争)
+         */
+        private void trackFirstWaiter() {
+            Thread current = Thread.currentThread();
+            Thread first = getFirstQueuedThread();
+            if (first == null || first == current) {
+                // 没有等待的线程，或者队首线程自己拿到了锁
+                firstWaiter = null;
+                bypasses = 0;
+            } else if (first != firstWaiter) {
+                // 新的队首线程，从这次插队开始计数
+                firstWaiter = first;
+                firstWaiterSince = System.nanoTime();
+                bypasses = 1;
+            } else {
+                bypasses++;
+            }
+        }
+
+        /**
+         * 尝试释放锁，设置state为0
+         *
+         * @param releases the release argument. This value is always the one
+         *                 passed to a release method, or the current state value upon
+         *                 entry to a condition wait.  The value is otherwise
+         *                 uninterpreted and can represent anything you like.
+         * @return
+         */
+        protected boolean tryRelease(int releases) {
+            assert releases == 1;
+            if (getState() == 0) {
+                throw new IllegalMonitorStateException();
+            }
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        /**
+         * 锁交给异步等待者，不再属于任何线程
+         */
+        void clearOwner() {
+            setExclusiveOwnerThread(null);
+        }
+
+        /**
+         * 反序列化之后是未加锁的状态
+         */
+        private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            setState(0);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 分段锁并发哈希表
+ * 整个map只用一把锁时所有读写串行执行，这里把map分成若干段(Segment)，每段有自己的 NoReentrantLock
+ * <p>
+ * (1)写操作: 只锁key所在的段，不同段的写可以并行
+ * (2)读操作: 不加锁，段的table是volatile字段，桶用AtomicReferenceArray，节点的key、hash、next都是final，value是volatile
+ * ---> 读线程总能看到一个完整的链表(可能稍旧)，不会看到构造了一半的节点
+ * (3)扩容: 每段独立扩容，构造新table之后一次volatile写发布，读线程要么读旧table，要么读新table
+ * (4)删除: next是final的，删除时复制被删节点之前的节点，正在遍历旧链表的读线程不受影响
+ * (5)批量操作 computeIfAbsentAll/mergeAll: 先按段分组，每段只加锁一次
+ * <p>
+ * 注意: NoReentrantLock不可重入，computeIfAbsent、merge 的函数在持有段锁时执行，函数中不能再访问这个map，否则可能自己锁死自己
+ *
+ * @author CZS
+ * @create 2026-10-19 23:40
+ **/
+public class StripedHashMap<K, V> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 16;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public StripedHashMap() {
+        this(DEFAULT_SEGMENTS, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * @param concurrencyLevel 段数，向上取整为2的幂
+     * @param segmentCapacity  每段的初始容量，向上取整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public StripedHashMap(int concurrencyLevel, int segmentCapacity) {
+        if (concurrencyLevel <= 0 || segmentCapacity <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel and segmentCapacity must be positive");
+        }
+        int segmentCount = tableSizeFor(Math.min(concurrencyLevel, MAX_SEGMENTS));
+        int capacity = tableSizeFor(Math.min(segmentCapacity, MAX_SEGMENT_CAPACITY));
+        // 用hash的高位选段，低位选桶，两者互不相关
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(capacity);
+        }
+    }
+
+    public V get(Object key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public V put(K key, V value) {
+        Objects.requireNonNull(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    public V remove(Object key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * key不存在时用mappingFunction计算value并放入，函数返回null时不放入
+     *
+     * @return 当前(已有的或新计算的)value
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        int hash = hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        // 已存在时不加锁
+        V value = segment.get(key, hash);
+        if (value != null) {
+            return value;
+        }
+        segment.lock.lock();
+        try {
+            return segment.computeIfAbsentLocked(key, hash, mappingFunction);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * key不存在时放入value，存在时用remappingFunction合并旧值和value，函数返回null时删除key
+     *
+     * @return 合并后的value，删除时返回null
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        int hash = hash(key);
+        Segment<K, V> segment = segmentFor(hash);
+        segment.lock.lock();
+        try {
+            return segment.mergeLocked(key, hash, value, remappingFunction);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 批量computeIfAbsent，按段分组，每段只加锁一次
+     *
+     * @return 每个key当前的value(函数返回null的key不在结果中)
+     */
+    public Map<K, V> computeIfAbsentAll(Collection<? extends K> keys, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        List<List<K>> groups = groupBySegment(keys);
+        Map<K, V> result = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            List<K> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Segment<K, V> segment = segments[i];
+            segment.lock.lock();
+            try {
+                for (K key : group) {
+                    V value = segment.computeIfAbsentLocked(key, hash(key), mappingFunction);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量merge，按段分组，每段只加锁一次
+     */
+    public void mergeAll(Map<? extends K, ? extends V> entries, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        List<List<K>> groups = groupBySegment(entries.keySet());
+        for (int i = 0; i < groups.size(); i++) {
+            List<K> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Segment<K, V> segment = segments[i];
+            segment.lock.lock();
+            try {
+                for (K key : group) {
+                    V value = Objects.requireNonNull(entries.get(key));
+                    segment.mergeLocked(key, hash(key), value, remappingFunction);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 各段count之和，并发修改时是一个近似值
+     */
+    public int size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.count;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 弱一致性遍历，不加锁，不抛ConcurrentModificationException
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Segment<K, V> segment : segments) {
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Node<K, V> e = table.get(i); e != null; e = e.next) {
+                    V value = e.value;
+                    if (value != null) {
+                        action.accept(e.key, value);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.table = new AtomicReferenceArray<>(segment.table.length());
+                segment.count = 0;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 每段当前的桶数，用于观察各段独立扩容
+     */
+    public int[] segmentCapacities() {
+        int[] capacities = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            capacities[i] = segments[i].table.length();
+        }
+        return capacities;
+    }
+
+    private List<List<K>> groupBySegment(Collection<? extends K> keys) {
+        List<List<K>> groups = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            groups.add(null);
+        }
+        for (K key : keys) {
+            int index = (hash(key) >>> segmentShift) & segmentMask;
+            List<K> group = groups.get(index);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.set(index, group);
+            }
+            group.add(key);
+        }
+        return groups;
+    }
+
+    private Segment<K, V> segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    /**
+     * 把高位扰动到低位，不允许null key
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        // 再混合一次，避免选段的高位与选桶的低位相关
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    static final class Node<K, V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        final Node<K, V> next;
+
+        Node(int hash, K key, V value, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    static final class Segment<K, V> {
+        final NoReentrantLock lock = new NoReentrantLock();
+        // 扩容时整个替换，volatile写发布给读线程
+        volatile AtomicReferenceArray<Node<K, V>> table;
+        // 只在持有锁时写
+        volatile int count;
+        int threshold;
+
+        Segment(int capacity) {
+            this.table = new AtomicReferenceArray<>(capacity);
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        /**
+         * 不加锁读
+         */
+        V get(Object key, int hash) {
+            AtomicReferenceArray<Node<K, V>> tab = table;
+            for (Node<K, V> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e.value;
+                }
+            }
+            return null;
+        }
+
+        V put(K key, int hash, V value, boolean onlyIfAbsent) {
+            lock.lock();
+            try {
+                Node<K, V> e = find(key, hash);
+                if (e != null) {
+                    V old = e.value;
+                    if (!onlyIfAbsent) {
+                        e.value = value;
+                    }
+                    return old;
+                }
+                insert(key, hash, value);
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V remove(Object key, int hash) {
+            lock.lock();
+            try {
+                return removeLocked(key, hash);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V computeIfAbsentLocked(K key, int hash, Function<? super K, ? extends V> mappingFunction) {
+            Node<K, V> e = find(key, hash);
+            if (e != null) {
+                return e.value;
+            }
+            V value = mappingFunction.apply(key);
+            if (value != null) {
+                insert(key, hash, value);
+            }
+            return value;
+        }
+
+        V mergeLocked(K key, int hash, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            Node<K, V> e = find(key, hash);
+            if (e == null) {
+                insert(key, hash, value);
+                return value;
+            }
+            V merged = remappingFunction.apply(e.value, value);
+            if (merged == null) {
+                removeLocked(key, hash);
+            } else {
+                e.value = merged;
+            }
+            return merged;
+        }
+
+        private Node<K, V> find(Object key, int hash) {
+            AtomicReferenceArray<Node<K, V>> tab = table;
+            for (Node<K, V> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 新节点放在链表头部，AtomicReferenceArray.set是volatile写，读线程看到的是完整构造的节点
+         */
+        private void insert(K key, int hash, V value) {
+            int c = count + 1;
+            if (c > threshold) {
+                rehash();
+            }
+            AtomicReferenceArray<Node<K, V>> tab = table;
+            int index = hash & (tab.length() - 1);
+            tab.set(index, new Node<>(hash, key, value, tab.get(index)));
+            count = c;
+        }
+
+        private V removeLocked(Object key, int hash) {
+            AtomicReferenceArray<Node<K, V>> tab = table;
+            int index = hash & (tab.length() - 1);
+            Node<K, V> first = tab.get(index);
+            Node<K, V> e = first;
+            while (e != null && (e.hash != hash || !key.equals(e.key))) {
+                e = e.next;
+            }
+            if (e == null) {
+                return null;
+            }
+            V old = e.value;
+            // 被删节点之后的链表直接复用，之前的节点复制一份
+            Node<K, V> newFirst = e.next;
+            for (Node<K, V> p = first; p != e; p = p.next) {
+                newFirst = new Node<>(p.hash, p.key, p.value, newFirst);
+            }
+            tab.set(index, newFirst);
+            count = count - 1;
+            return old;
+        }
+
+        /**
+         * 容量翻倍，每个桶中扩容后仍落在同一个新桶的尾部节点直接复用，其余节点复制
+         * 旧table不修改，新table构造完成后再发布
+         */
+        private void rehash() {
+            AtomicReferenceArray<Node<K, V>> oldTable = table;
+            int oldCapacity = oldTable.length();
+            if (oldCapacity >= MAX_SEGMENT_CAPACITY) {
+                return;
+            }
+            int newCapacity = oldCapacity << 1;
+            int mask = newCapacity - 1;
+            AtomicReferenceArray<Node<K, V>> newTable = new AtomicReferenceArray<>(newCapacity);
+            for (int i = 0; i < oldCapacity; i++) {
+                Node<K, V> e = oldTable.get(i);
+                if (e == null) {
+                    continue;
+                }
+                // 找到最后一段落在同一个新桶的节点
+                Node<K, V> lastRun = e;
+                int lastIndex = e.hash & mask;
+                for (Node<K, V> p = e.next; p != null; p = p.next) {
+                    int k = p.hash & mask;
+                    if (k != lastIndex) {
+                        lastIndex = k;
+                        lastRun = p;
+                    }
+                }
+                newTable.set(lastIndex, lastRun);
+                for (Node<K, V> p = e; p != lastRun; p = p.next) {
+                    int k = p.hash & mask;
+                    newTable.set(k, new Node<>(p.hash, p.key, p.value, newTable.get(k)));
+                }
+            }
+            threshold = (int) (newCapacity * LOAD_FACTOR);
+            table = newTable;
+        }
+    }
+}
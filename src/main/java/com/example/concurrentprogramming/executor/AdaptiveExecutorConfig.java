@@ -0,0 +1,39 @@
+package com.example.concurrentprogramming.executor;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用自适应线程池替换Tomcat默认的固定大小线程池
+ *
+ * @author CZS
+ * @create 2026-10-19 23:15
+ **/
+@Configuration
+@EnableConfigurationProperties(AdaptiveExecutorProperties.class)
+@ConditionalOnProperty(prefix = "adaptive-executor", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class AdaptiveExecutorConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public AdaptiveThreadPoolExecutor adaptiveThreadPoolExecutor(AdaptiveExecutorProperties properties) {
+        // 该线程池是Tomcat Connector的执行器，队列满时只能拒绝: 调用方执行会让Poller/Acceptor线程去处理阻塞的请求，卡住所有连接的IO；
+        // 丢弃队列中的任务会让对应的连接一直挂起到客户端超时。拒绝时Tomcat关闭该连接
+        return new AdaptiveThreadPoolExecutor(properties.getMinThreads(), properties.getMaxThreads(),
+                properties.getQueueCapacity(), new ThreadPoolExecutor.AbortPolicy(),
+                properties.getTargetQueueDelayMillis(), properties.getSampleIntervalMillis(), TimeUnit.MILLISECONDS,
+                "http-adaptive-");
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> adaptiveExecutorCustomizer(AdaptiveThreadPoolExecutor executor) {
+        // Connector处理请求时使用该线程池，而不是Tomcat内部创建的线程池
+        return factory -> factory.addConnectorCustomizers(connector -> connector.getProtocolHandler().setExecutor(executor));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.concurrentprogramming.executor;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 查看自适应线程池的当前状态和最近的调整决策(为什么扩容/缩容)
+ *
+ * @author CZS
+ * @create 2026-10-19 23:20
+ **/
+@RestController
+public class AdaptiveExecutorController {
+    private final AdaptiveThreadPoolExecutor executor;
+
+    public AdaptiveExecutorController(AdaptiveThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    @GetMapping("/adaptive-executor")
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("minThreads", executor.getMinThreads());
+        status.put("maxThreads", executor.getMaxThreads());
+        status.put("poolSize", executor.getPoolSize());
+        status.put("corePoolSize", executor.getCorePoolSize());
+        status.put("activeCount", executor.getActiveCount());
+        status.put("queueSize", executor.getQueue().size());
+        status.put("completedTaskCount", executor.getCompletedTaskCount());
+        status.put("rejectedCount", executor.getRejectedCount());
+        status.put("decisions", executor.getDecisions());
+        return status;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.concurrentprogramming.executor;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Web容器自适应线程池配置，对应 application.yml 中的 adaptive-executor
+ *
+ * @author CZS
+ * @create 2026-10-19 23:10
+ **/
+@Data
+@ConfigurationProperties(prefix = "adaptive-executor")
+public class AdaptiveExecutorProperties {
+    /**
+     * 是否启用
+     */
+    private boolean enabled = true;
+    /**
+     * 最少线程数
+     */
+    private int minThreads = 10;
+    /**
+     * 最多线程数
+     */
+    private int maxThreads = 200;
+    /**
+     * 有界队列容量
+     */
+    private int queueCapacity = 1_000;
+    /**
+     * 采样、调整周期(毫秒)
+     */
+    private long sampleIntervalMillis = 1_000;
+    /**
+     * 目标平均排队延迟(毫秒)，超过则扩容
+     */
+    private long targetQueueDelayMillis = 20;
+}
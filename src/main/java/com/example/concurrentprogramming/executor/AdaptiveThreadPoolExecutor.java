@@ -0,0 +1,277 @@
+package com.example.concurrentprogramming.executor;
+
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应大小的线程池
+ * 有界队列 + 拒绝策略，后台线程定期采样 排队延迟、吞吐量、服务时间、利用率，在[min, max]范围内调整线程数
+ * <p>
+ * 调整规则:
+ * (1)平均排队延迟超过目标值 ---> 扩容，目标线程数取 当前线程数 + 步长 与 利特尔法则估算值(到达率 × 服务时间) 中的较大者
+ * (2)爬山法校验: 上一次扩容后吞吐量没有提升(说明瓶颈在下游而不是线程数) ---> 退回扩容前的线程数，暂停扩容若干个周期，
+ *    之后每次只按步长试探，直到某次扩容确实提升了吞吐量
+ * (3)排队延迟正常并且利用率低 ---> 缩容，不低于利特尔法则估算值
+ * 每次决策(包括暂停扩容)都会记录原因，可以通过接口查看
+ *
+ * @author CZS
+ * @create 2026-10-19 23:00
+ **/
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+    // 估算值的余量
+    private static final double HEADROOM = 0.2;
+    // 利用率低于该值时缩容
+    private static final double LOW_UTILIZATION = 0.5;
+    // 扩容后吞吐量至少提升的比例
+    private static final double MIN_IMPROVEMENT = 0.05;
+    // 扩容无效时暂停扩容的周期数
+    private static final int HOLD_TICKS = 5;
+    // 保留的决策记录数
+    private static final int MAX_DECISIONS = 100;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final long targetQueueDelayNanos;
+    private final long sampleIntervalNanos;
+    private final ScheduledExecutorService tuner;
+
+    // 当前采样周期的统计
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder queueDelayNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // 以下字段只有调整线程访问
+    private long lastSampleNanos = System.nanoTime();
+    private double lastThroughput;
+    private boolean lastActionWasGrow;
+    private int sizeBeforeGrow;
+    private int holdTicks;
+    // 出现过无效扩容，只按步长试探
+    private boolean probing;
+
+    private final Deque<Decision> decisions = new ArrayDeque<>();
+
+    /**
+     * @param minThreads         最少线程数
+     * @param maxThreads         最多线程数
+     * @param queueCapacity      有界队列容量
+     * @param rejectionHandler   队列满时的拒绝策略
+     * @param targetQueueDelay   目标平均排队延迟
+     * @param sampleInterval     采样、调整周期
+     * @param unit               targetQueueDelay和sampleInterval的单位
+     * @param threadNamePrefix   工作线程名前缀
+     */
+    public AdaptiveThreadPoolExecutor(int minThreads, int maxThreads, int queueCapacity,
+                                      RejectedExecutionHandler rejectionHandler,
+                                      long targetQueueDelay, long sampleInterval, TimeUnit unit,
+                                      String threadNamePrefix) {
+        super(minThreads, minThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                namedThreadFactory(threadNamePrefix), rejectionHandler);
+        if (minThreads <= 0 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("require 0 < minThreads <= maxThreads");
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetQueueDelayNanos = unit.toNanos(targetQueueDelay);
+        this.sampleIntervalNanos = unit.toNanos(sampleInterval);
+        // 包装拒绝策略，统计拒绝次数
+        setRejectedExecutionHandler((r, executor) -> {
+            rejected.increment();
+            rejectionHandler.rejectedExecution(r, executor);
+        });
+        this.tuner = Executors.newSingleThreadScheduledExecutor(namedThreadFactory(threadNamePrefix + "tuner-"));
+        this.tuner.scheduleWithFixedDelay(this::adjust, sampleIntervalNanos, sampleIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        submitted.increment();
+        super.execute(new TimedTask(command));
+    }
+
+    @Override
+    public void shutdown() {
+        tuner.shutdown();
+        super.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        tuner.shutdownNow();
+        return super.shutdownNow();
+    }
+
+    /**
+     * 最近的调整决策，按时间先后排列
+     *
+     * @return
+     */
+    public synchronized List<Decision> getDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * 采样并调整线程数(调整线程中执行，也可以手动调用)
+     */
+    synchronized void adjust() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastSampleNanos, 1L) / 1e9;
+        lastSampleNanos = now;
+
+        long arrivals = submitted.sumThenReset();
+        long done = completed.sumThenReset();
+        long queueDelay = queueDelayNanos.sumThenReset();
+        long service = serviceNanos.sumThenReset();
+        long rejections = rejected.sum();
+
+        int size = getCorePoolSize();
+        double throughput = done / seconds;
+        double arrivalRate = arrivals / seconds;
+        double avgQueueDelayNanos = done == 0 ? 0 : (double) queueDelay / done;
+        double avgServiceNanos = done == 0 ? 0 : (double) service / done;
+        double utilization = service / (seconds * 1e9 * size);
+        // 利特尔法则: 并发数 = 到达率 × 服务时间
+        int littleTarget = (int) Math.ceil(arrivalRate * avgServiceNanos / 1e9 * (1 + HEADROOM));
+        int step = Math.max(1, size / 4);
+
+        int target = size;
+        String reason = null;
+        boolean queueing = avgQueueDelayNanos > targetQueueDelayNanos
+                || (done == 0 && getQueue().size() > 0);
+        if (holdTicks > 0) {
+            holdTicks--;
+        }
+        if (queueing) {
+            if (lastActionWasGrow && throughput < lastThroughput * (1 + MIN_IMPROVEMENT)) {
+                target = sizeBeforeGrow;
+                holdTicks = HOLD_TICKS;
+                probing = true;
+                reason = String.format("grew last tick but throughput %.0f/s did not improve on %.0f/s, revert and hold growth for %d ticks",
+                        throughput, lastThroughput, HOLD_TICKS);
+            } else if (holdTicks == 0 && size < maxThreads) {
+                // 上一次扩容有效，恢复按估算值扩容
+                if (lastActionWasGrow) {
+                    probing = false;
+                }
+                target = probing ? size + step : Math.max(size + step, littleTarget);
+                reason = String.format("avg queue delay %.2fms > target %.2fms, little's law estimate %d",
+                        avgQueueDelayNanos / 1e6, targetQueueDelayNanos / 1e6, littleTarget);
+            }
+        } else if (utilization < LOW_UTILIZATION && size > minThreads) {
+            // 估算值可能大于当前线程数，缩容分支中不能扩容
+            target = Math.min(Math.max(size - step, littleTarget), size);
+            reason = String.format("utilization %.0f%% < %.0f%%, little's law estimate %d",
+                    utilization * 100, LOW_UTILIZATION * 100, littleTarget);
+        }
+        target = Math.min(Math.max(target, minThreads), maxThreads);
+
+        lastActionWasGrow = target > size;
+        sizeBeforeGrow = size;
+        lastThroughput = throughput;
+        if (target != size) {
+            resize(target);
+        }
+        if (reason != null) {
+            record(new Decision(System.currentTimeMillis(), size, target, reason, throughput,
+                    avgQueueDelayNanos / 1e6, avgServiceNanos / 1e6, utilization, getQueue().size(), rejections));
+        }
+    }
+
+    private void resize(int target) {
+        // 扩容先调大最大线程数，缩容先调小核心线程数，保证任何时候 core <= max
+        if (target > getMaximumPoolSize()) {
+            setMaximumPoolSize(target);
+            setCorePoolSize(target);
+        } else {
+            setCorePoolSize(target);
+            setMaximumPoolSize(target);
+        }
+    }
+
+    private void record(Decision decision) {
+        decisions.addLast(decision);
+        if (decisions.size() > MAX_DECISIONS) {
+            decisions.removeFirst();
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 记录入队时间，执行时统计排队延迟和服务时间
+     */
+    private final class TimedTask implements Runnable {
+        private final Runnable command;
+        private final long enqueuedNanos = System.nanoTime();
+
+        TimedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueDelayNanos.add(start - enqueuedNanos);
+            try {
+                command.run();
+            } finally {
+                serviceNanos.add(System.nanoTime() - start);
+                completed.increment();
+            }
+        }
+    }
+
+    /**
+     * 一次调整决策
+     */
+    @Value
+    public static class Decision {
+        long timeMillis;
+        int previousThreads;
+        int newThreads;
+        String reason;
+        double throughput;
+        double avgQueueDelayMillis;
+        double avgServiceMillis;
+        double utilization;
+        int queueSize;
+        long totalRejected;
+    }
+}
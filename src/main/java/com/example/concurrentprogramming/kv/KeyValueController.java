@@ -0,0 +1,135 @@
+package com.example.concurrentprogramming.kv;
+
+import com.example.concurrentprogramming.chapter6.StripedHashMap;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 StripedHashMap 的键值接口，用于端到端压测分段锁map
+ * <p>
+ * GET    /kv/{key}                 读(不加锁)
+ * PUT    /kv/{key}                 写，请求体为value
+ * DELETE /kv/{key}                 删除
+ * POST   /kv/{key}/increment       计数器加delta(merge)
+ * POST   /kv/increment             批量加，请求体为 {key: delta}(mergeAll，每段只加锁一次)，先校验，校验不通过时都不修改
+ * POST   /kv/absent                批量初始化，请求体为 [key]，不存在的key置为空串(computeIfAbsentAll)
+ * GET    /kv                       大小和各段容量
+ *
+ * @author CZS
+ * @create 2026-10-19 23:55
+ **/
+@RestController
+@RequestMapping("/kv")
+public class KeyValueController {
+    private final StripedHashMap<String, String> store = new StripedHashMap<>(64, 16);
+
+    @GetMapping("/{key}")
+    public ResponseEntity<String> get(@PathVariable String key) {
+        String value = store.get(key);
+        return value == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(value);
+    }
+
+    @PutMapping("/{key}")
+    public ResponseEntity<String> put(@PathVariable String key, @RequestBody String value) {
+        String old = store.put(key, value);
+        return old == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(old);
+    }
+
+    @DeleteMapping("/{key}")
+    public ResponseEntity<String> delete(@PathVariable String key) {
+        String old = store.remove(key);
+        return old == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(old);
+    }
+
+    @PostMapping("/{key}/increment")
+    public ResponseEntity<String> increment(@PathVariable String key, @RequestParam(defaultValue = "1") long delta) {
+        try {
+            return ResponseEntity.ok(store.merge(key, Long.toString(delta), KeyValueController::add));
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body("value of " + key + " is not a number");
+        }
+    }
+
+    /**
+     * 先校验再合并: delta不能为空，已有的值必须是数字，校验不通过时一个key都不修改
+     * 校验之后、合并之前被并发改成非数字的值保持不变，返回409和个数(不会加到一半抛出异常)
+     */
+    @PostMapping("/increment")
+    public ResponseEntity<String> incrementAll(@RequestBody Map<String, Long> deltas) {
+        List<String> invalid = new ArrayList<>();
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue() == null) {
+                invalid.add(key);
+                continue;
+            }
+            String old = store.get(key);
+            if (old != null && !isNumber(old)) {
+                invalid.add(key);
+                continue;
+            }
+            entries.put(key, Long.toString(entry.getValue()));
+        }
+        if (!invalid.isEmpty()) {
+            return ResponseEntity.badRequest().body("delta is null or value is not a number: " + invalid);
+        }
+        // mergeAll在当前线程中逐段执行
+        int[] skipped = new int[1];
+        store.mergeAll(entries, (old, delta) -> {
+            if (!isNumber(old)) {
+                skipped[0]++;
+                return old;
+            }
+            return add(old, delta);
+        });
+        if (skipped[0] > 0) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(skipped[0] + " values changed to non-numbers concurrently, left unchanged");
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/absent")
+    public Map<String, String> initAbsent(@RequestBody List<String> keys) {
+        return store.computeIfAbsentAll(keys, key -> "");
+    }
+
+    @GetMapping
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", store.size());
+        stats.put("segmentCapacities", store.segmentCapacities());
+        return stats;
+    }
+
+    private static boolean isNumber(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String add(String old, String delta) {
+        long base = old.isEmpty() ? 0 : Long.parseLong(old);
+        return Long.toString(base + Long.parseLong(delta));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.concurrentprogramming.limiter;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把准入控制过滤器注册在所有Controller之前
+ *
+ * @author CZS
+ * @create 2026-10-19 21:25
+ **/
+@Configuration
+@EnableConfigurationProperties(AdmissionControlProperties.class)
+@ConditionalOnProperty(prefix = "admission-control", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlConfig {
+
+    @Bean
+    public Bulkhead bulkhead(AdmissionControlProperties properties) {
+        return new Bulkhead(properties.getMaxConcurrentRequests());
+    }
+
+    @Bean
+    public TokenBucketRateLimiter tokenBucketRateLimiter(AdmissionControlProperties properties) {
+        return new TokenBucketRateLimiter(properties.getPermitsPerSecond(), properties.getBurst());
+    }
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(AdmissionControlProperties properties,
+                                                                                 TokenBucketRateLimiter rateLimiter,
+                                                                                 Bulkhead bulkhead) {
+        AdmissionControlFilter filter = new AdmissionControlFilter(rateLimiter, bulkhead,
+                properties.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+        FilterRegistrationBean<AdmissionControlFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/*");
+        // 最先执行，被拒绝的请求不再经过其他过滤器
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.concurrentprogramming.limiter;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制过滤器，放在所有Controller之前
+ * (1)先过令牌桶限流器，没有令牌 ---> 429 Too Many Requests
+ * (2)再过舱壁，处理中的请求数已满 ---> 503 Service Unavailable
+ * 超载时请求在这里被直接拒绝(微秒级)，而不是在线程池队列里排队直到超时
+ *
+ * @author CZS
+ * @create 2026-10-19 21:10
+ **/
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    private final TokenBucketRateLimiter rateLimiter;
+    private final Bulkhead bulkhead;
+    // 舱壁已满时最多等待的时间，0表示不等待
+    private final long bulkheadMaxWaitNanos;
+
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder bulkheadRejected = new LongAdder();
+
+    public AdmissionControlFilter(TokenBucketRateLimiter rateLimiter, Bulkhead bulkhead, long bulkheadMaxWait, TimeUnit unit) {
+        this.rateLimiter = rateLimiter;
+        this.bulkhead = bulkhead;
+        this.bulkheadMaxWaitNanos = unit.toNanos(bulkheadMaxWait);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        // (1)限流
+        if (!rateLimiter.tryAcquire()) {
+            rateLimited.increment();
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "rate limit exceeded");
+            return;
+        }
+        // (2)舱壁
+        if (!acquireBulkhead()) {
+            bulkheadRejected.increment();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "too many concurrent requests");
+            return;
+        }
+
+        // 异步请求在处理线程返回之后才真正结束，要在异步处理完成时再归还许可
+        AtomicBoolean released = new AtomicBoolean();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseOnComplete(released));
+            } else if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private boolean acquireBulkhead() {
+        if (bulkheadMaxWaitNanos <= 0) {
+            return bulkhead.tryAcquire();
+        }
+        try {
+            return bulkhead.tryAcquire(bulkheadMaxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    public long getBulkheadRejectedCount() {
+        return bulkheadRejected.sum();
+    }
+
+    /**
+     * 异步请求完成、超时、出错时归还许可(只归还一次)
+     */
+    private final class ReleaseOnComplete implements AsyncListener {
+        private final AtomicBoolean released;
+
+        ReleaseOnComplete(AtomicBoolean released) {
+            this.released = released;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
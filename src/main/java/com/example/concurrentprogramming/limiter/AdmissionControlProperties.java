@@ -0,0 +1,35 @@
+package com.example.concurrentprogramming.limiter;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 准入控制配置，对应 application.yml 中的 admission-control
+ *
+ * @author CZS
+ * @create 2026-10-19 21:20
+ **/
+@Data
+@ConfigurationProperties(prefix = "admission-control")
+public class AdmissionControlProperties {
+    /**
+     * 是否启用
+     */
+    private boolean enabled = true;
+    /**
+     * 同时处理中的最大请求数
+     */
+    private int maxConcurrentRequests = 200;
+    /**
+     * 舱壁已满时最多等待的毫秒数，0表示立即拒绝
+     */
+    private long maxWaitMillis = 0;
+    /**
+     * 每秒允许的请求数
+     */
+    private double permitsPerSecond = 10_000;
+    /**
+     * 允许的最大突发请求数
+     */
+    private int burst = 1_000;
+}
@@ -0,0 +1,137 @@
+package com.example.concurrentprogramming.limiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * 基于AQS共享模式实现的舱壁(Bulkhead)，限制同时在处理中的请求数
+ * 与 NoReentrantLock 使用AQS独占模式不同，这里state表示剩余的许可数，多个线程可以同时持有许可
+ * 许可用完时，tryAcquire() 立即返回false，tryAcquire(timeout) 最多排队等待timeout
+ *
+ * @author CZS
+ * @create 2026-10-19 20:40
+ **/
+public class Bulkhead {
+    /**
+     * 创建一个内部类Sync对象进行具体的许可操作（操作state值）
+     */
+    private final Sync sync;
+    private final int maxConcurrent;
+
+    public Bulkhead(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.sync = new Sync(maxConcurrent);
+    }
+
+    /**
+     * 非阻塞获取一个许可
+     *
+     * @return 没有剩余许可时返回false
+     */
+    public boolean tryAcquire() {
+        // 直接调用Sync的自定义tryAcquireShared(int acquires)方法，不排队
+        return sync.tryAcquireShared(1) >= 0;
+    }
+
+    /**
+     * 获取一个许可，最多等待timeout
+     *
+     * @param timeout
+     * @param unit
+     * @return 超时返回false
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        // 调用AQS的tryAcquireSharedNanos(int arg, long nanosTimeout)方法，实际调用Sync的自定义tryAcquireShared(int acquires)方法
+        return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+    }
+
+    /**
+     * 归还一个许可
+     */
+    public void release() {
+        // 调用AQS的releaseShared(int arg)方法，实际调用Sync的自定义tryReleaseShared(int releases)方法
+        sync.releaseShared(1);
+    }
+
+    /**
+     * 剩余许可数
+     *
+     * @return
+     */
+    public int availablePermits() {
+        return sync.permits();
+    }
+
+    /**
+     * 正在处理中的请求数
+     *
+     * @return
+     */
+    public int inFlight() {
+        return maxConcurrent - sync.permits();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * 内部帮助类，state为剩余许可数
+     */
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 8190371224165338702L;
+
+        private final int maxPermits;
+
+        Sync(int permits) {
+            this.maxPermits = permits;
+            setState(permits);
+        }
+
+        int permits() {
+            return getState();
+        }
+
+        /**
+         * CAS减少许可数
+         *
+         * @param acquires
+         * @return 剩余许可数，小于0表示获取失败
+         */
+        @Override
+        protected int tryAcquireShared(int acquires) {
+            for (; ; ) {
+                int available = getState();
+                int remaining = available - acquires;
+                // 许可不够直接返回负数，不修改state
+                if (remaining < 0 || compareAndSetState(available, remaining)) {
+                    return remaining;
+                }
+            }
+        }
+
+        /**
+         * CAS增加许可数，返回true后AQS会唤醒排队的线程
+         *
+         * @param releases
+         * @return
+         */
+        @Override
+        protected boolean tryReleaseShared(int releases) {
+            for (; ; ) {
+                int current = getState();
+                int next = current + releases;
+                if (next > maxPermits) {
+                    throw new IllegalStateException("release without acquire");
+                }
+                if (compareAndSetState(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
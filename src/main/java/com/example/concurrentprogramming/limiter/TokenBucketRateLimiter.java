@@ -0,0 +1,112 @@
+package com.example.concurrentprogramming.limiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限流器，没有后台补充令牌的线程，在获取时按流逝的时间惰性计算
+ * <p>
+ * 只用一个AtomicLong记录"桶被清空的理论时间点"(theoretical arrival time, TAT)
+ * ---> 每个令牌的补充间隔 interval = 1s / permitsPerSecond，桶容量 burst 个令牌
+ * ---> 当前桶中的令牌数 = (burst * interval - (TAT - now)) / interval
+ * ---> 获取一个令牌 = TAT向后推一个interval，推完之后 TAT - now 不超过 burst * interval 才允许
+ * 获取令牌只有一次CAS，不分配对象，不需要加锁
+ *
+ * @author CZS
+ * @create 2026-10-19 20:55
+ **/
+public class TokenBucketRateLimiter {
+    // reserve()没有预定到令牌
+    private static final long NOT_RESERVED = Long.MIN_VALUE;
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param burst            桶容量，允许的最大突发请求数
+     */
+    public TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        // 初始时桶是满的
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * 非阻塞获取一个令牌
+     *
+     * @return 没有令牌时返回false
+     */
+    public boolean tryAcquire() {
+        return reserve(0L) != NOT_RESERVED;
+    }
+
+    /**
+     * 获取一个令牌，令牌不够时最多等待timeout
+     * 能在timeout内补充到令牌时先预定令牌再等待，否则立即返回false，不会白等
+     * 等待时被中断则退还预定的令牌(之后没有其他线程再预定时)，再抛出InterruptedException
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long reservedTat = reserve(unit.toNanos(timeout));
+        if (reservedTat == NOT_RESERVED) {
+            return false;
+        }
+        // 预定的令牌在 TAT - burst 时可用
+        long deadline = reservedTat - burstNanos;
+        long waitNanos = deadline - System.nanoTime();
+        while (waitNanos > 0L) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                // TAT仍然是这次推到的值时退回一个interval；之后已经有其他线程预定时不能退回，否则会多发令牌
+                theoreticalArrivalTime.compareAndSet(reservedTat, reservedTat - intervalNanos);
+                throw new InterruptedException();
+            }
+            waitNanos = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * 当前桶中的令牌数(估计值)
+     *
+     * @return
+     */
+    public long availablePermits() {
+        long now = System.nanoTime();
+        long tat = Math.max(theoreticalArrivalTime.get(), now);
+        return (burstNanos - (tat - now)) / intervalNanos;
+    }
+
+    /**
+     * 预定一个令牌
+     *
+     * @param maxWaitNanos 最多愿意等待的时间
+     * @return 预定之后的TAT，令牌在 TAT - burst 时可用；等待时间超过maxWaitNanos时返回NOT_RESERVED(未预定)
+     */
+    private long reserve(long maxWaitNanos) {
+        for (; ; ) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            // 桶已经满了(空闲了很久)，从当前时间开始算
+            long newTat = Math.max(tat, now) + intervalNanos;
+            long waitNanos = newTat - now - burstNanos;
+            if (waitNanos > maxWaitNanos) {
+                return NOT_RESERVED;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return newTat;
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.example.concurrentprogramming.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步批量日志
+ * System.out.println 在PrintStream上加了synchronized，并且在调用线程中格式化、写出，临界区中打印会把线程串行化，影响计时
+ * <p>
+ * (1)调用线程只把 时间戳、线程、模板、参数 写入预分配的环形缓冲区槽位(CAS领取序号，按槽位序号发布)，不格式化、不做IO
+ * (2)后台写线程按序批量取出，格式化(模板中的 {} 依次替换为参数)，一批只写一次Channel
+ * (3)缓冲区满时按策略处理: DROP 丢弃并计数，BLOCK 等待写线程腾出空间(写线程已经退出时不再等待，按DROP处理)
+ * (4)格式化失败(模板为null、参数的toString()抛异常)时写一行占位并计数，写线程继续工作
+ * <p>
+ * 参数在写线程中才调用toString()格式化: 可变对象打印的是写出时的状态，而不是调用log时的状态，
+ * 需要调用时的值应当传入不可变的快照(例如先转成String)
+ * <p>
+ * 写文件用 FileChannel；console() 写到System.out对应的Channel(一批只调用一次System.out)
+ *
+ * @author CZS
+ * @create 2026-10-20 01:10
+ **/
+public class AsyncLogger implements Closeable {
+
+    /**
+     * 缓冲区满时的策略
+     */
+    public enum FullPolicy {
+        /**
+         * 丢弃这条日志，调用线程不等待
+         */
+        DROP,
+        /**
+         * 等待写线程腾出空间，不丢日志
+         */
+        BLOCK
+    }
+
+    private static final int DEFAULT_CAPACITY = 1 << 13;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final WritableByteChannel channel;
+    private final FullPolicy policy;
+    private final Entry[] entries;
+    // 每个槽位已发布的序号+1，等于 序号+1 时表示该槽位的日志可以读取
+    private final AtomicLongArray published;
+    private final int mask;
+    // 下一个要领取的序号
+    private final AtomicLong tail = new AtomicLong();
+    // 写线程已经写出的序号，小于它的槽位可以复用
+    private volatile long head;
+
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder formatErrors = new LongAdder();
+    private volatile long written;
+
+    /**
+     * @param channel  日志写到的Channel
+     * @param capacity 环形缓冲区槽位数，向上取整为2的幂
+     * @param policy   缓冲区满时的策略
+     */
+    public AsyncLogger(WritableByteChannel channel, int capacity, FullPolicy policy) {
+        if (channel == null || policy == null) {
+            throw new NullPointerException();
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.channel = channel;
+        this.policy = policy;
+        this.entries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+        }
+        this.published = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.writer = new Thread(this::writeLoop, "async-logger-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 写文件(追加)
+     */
+    public static AsyncLogger toFile(Path path, int capacity, FullPolicy policy) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            return new AsyncLogger(channel, capacity, policy);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 全局共享的控制台日志(BLOCK，不丢日志)，JVM退出前写完剩余日志
+     */
+    public static AsyncLogger console() {
+        return ConsoleHolder.INSTANCE;
+    }
+
+    private static final class ConsoleHolder {
+        static final AsyncLogger INSTANCE = create();
+
+        private static AsyncLogger create() {
+            AsyncLogger logger = new AsyncLogger(Channels.newChannel(System.out), DEFAULT_CAPACITY, FullPolicy.BLOCK);
+            Runtime.getRuntime().addShutdownHook(new Thread(logger::flush, "async-logger-shutdown"));
+            return logger;
+        }
+    }
+
+    public boolean log(String message) {
+        return append(message, 0, null, null, null, null);
+    }
+
+    public boolean log(String pattern, Object arg) {
+        return append(pattern, 1, arg, null, null, null);
+    }
+
+    public boolean log(String pattern, Object arg1, Object arg2) {
+        return append(pattern, 2, arg1, arg2, null, null);
+    }
+
+    public boolean log(String pattern, Object arg1, Object arg2, Object arg3) {
+        return append(pattern, 3, arg1, arg2, arg3, null);
+    }
+
+    public boolean log(String pattern, Object arg1, Object arg2, Object arg3, Object arg4) {
+        return append(pattern, 4, arg1, arg2, arg3, arg4);
+    }
+
+    /**
+     * 等待调用之前已经写入缓冲区的日志全部写出
+     */
+    public void flush() {
+        long target = tail.get();
+        while (head < target && writer.isAlive()) {
+            unparkWriter();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    /**
+     * 写出剩余日志后停止写线程并关闭Channel
+     * 与close()并发、已经领取了序号的日志也会写出，写线程等它们发布之后才退出
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 格式化失败、以占位行写出的日志条数
+     */
+    public long getFormatErrorCount() {
+        return formatErrors.sum();
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    public FullPolicy getFullPolicy() {
+        return policy;
+    }
+
+    /**
+     * 领取一个槽位，只写引用和时间戳，不格式化
+     *
+     * @return DROP策略下缓冲区已满时返回false
+     */
+    private boolean append(String pattern, int argc, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (closed) {
+            return false;
+        }
+        long seq;
+        int spins = 0;
+        while (true) {
+            seq = tail.get();
+            if (seq - head >= entries.length) {
+                // 缓冲区已满，写线程已经退出时没有人会腾出空间，不能等待
+                if (policy == FullPolicy.DROP || !writer.isAlive()) {
+                    dropped.increment();
+                    return false;
+                }
+                unparkWriter();
+                if (++spins < 64) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+                continue;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        int index = (int) (seq & mask);
+        Entry entry = entries[index];
+        entry.timeMillis = System.currentTimeMillis();
+        entry.thread = Thread.currentThread();
+        entry.pattern = pattern;
+        entry.argc = argc;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.arg3 = arg3;
+        entry.arg4 = arg4;
+        // 发布: 之前对entry的写对写线程可见
+        published.lazySet(index, seq + 1);
+        if (writerParked) {
+            unparkWriter();
+        }
+        if (closed) {
+            // 领取序号之后才看到close(): 写线程退出前读到的tail可能不包含这个序号，等它写出或者退出
+            return awaitWrittenOnClose(seq);
+        }
+        return true;
+    }
+
+    /**
+     * close()与append并发时，确认seq是否被写线程写出；写线程已经退出而没有写出时记为丢弃
+     */
+    private boolean awaitWrittenOnClose(long seq) {
+        while (head <= seq) {
+            // 写线程退出之后head不再变化，退出前的最后一次写出已经对这里可见
+            if (!writer.isAlive() && head <= seq) {
+                dropped.increment();
+                return false;
+            }
+            unparkWriter();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return true;
+    }
+
+    private void unparkWriter() {
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop() {
+        StringBuilder batch = new StringBuilder(8192);
+        long position = head;
+        while (true) {
+            int count = 0;
+            while (count < MAX_BATCH) {
+                int index = (int) (position & mask);
+                if (published.get(index) != position + 1) {
+                    break;
+                }
+                Entry entry = entries[index];
+                int mark = batch.length();
+                try {
+                    format(entry, batch);
+                } catch (Throwable t) {
+                    // 一条日志格式化失败不能让写线程退出，否则BLOCK策略下缓冲区写满后所有调用线程都会一直等待
+                    batch.setLength(mark);
+                    formatErrors.increment();
+                    batch.append("<log format failed: ").append(t.getClass().getName()).append("> ")
+                            .append(String.valueOf(entry.pattern)).append(System.lineSeparator());
+                }
+                entry.clear();
+                position++;
+                count++;
+            }
+            if (count > 0) {
+                write(batch);
+                batch.setLength(0);
+                written += count;
+                // 写出之后才释放槽位，flush()看到head推进时日志已经写出
+                head = position;
+                continue;
+            }
+            // 已经关闭并且所有领取了序号的日志都已写出才退出，领取了还没有发布的要等它发布
+            if (closed && position == tail.get()) {
+                return;
+            }
+            // 先标记再检查一次，避免在检查和park之间发布的日志没有唤醒写线程
+            writerParked = true;
+            if (published.get((int) (position & mask)) != position + 1) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    private void write(StringBuilder batch) {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(batch));
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            // 写日志失败不影响业务线程，只记为丢弃
+            dropped.increment();
+        }
+    }
+
+    /**
+     * HH:mm:ss.SSS [线程名] 消息，消息中的 {} 依次替换为参数
+     */
+    private static void format(Entry entry, StringBuilder out) {
+        LocalTime time = Instant.ofEpochMilli(entry.timeMillis).atZone(ZONE).toLocalTime();
+        pad(out, time.getHour(), 2).append(':');
+        pad(out, time.getMinute(), 2).append(':');
+        pad(out, time.getSecond(), 2).append('.');
+        pad(out, time.getNano() / 1_000_000, 3);
+        out.append(" [").append(entry.thread.getName()).append("] ");
+
+        String pattern = entry.pattern;
+        int from = 0;
+        for (int i = 1; i <= entry.argc; i++) {
+            int at = pattern.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            out.append(pattern, from, at).append(entry.arg(i));
+            from = at + 2;
+        }
+        out.append(pattern, from, pattern.length()).append(System.lineSeparator());
+    }
+
+    private static StringBuilder pad(StringBuilder out, int value, int width) {
+        for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+            if (value < limit) {
+                out.append('0');
+            }
+        }
+        return out.append(value);
+    }
+
+    /**
+     * 预分配的槽位，领取序号的线程写入，写线程读出后清空引用
+     */
+    private static final class Entry {
+        long timeMillis;
+        Thread thread;
+        String pattern;
+        int argc;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        Object arg4;
+
+        Object arg(int i) {
+            switch (i) {
+                case 1:
+                    return arg1;
+                case 2:
+                    return arg2;
+                case 3:
+                    return arg3;
+                default:
+                    return arg4;
+            }
+        }
+
+        void clear() {
+            thread = null;
+            pattern = null;
+            arg1 = null;
+            arg2 = null;
+            arg3 = null;
+            arg4 = null;
+        }
+    }
+}
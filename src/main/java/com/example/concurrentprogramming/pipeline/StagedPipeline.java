@@ -0,0 +1,412 @@
+package com.example.concurrentprogramming.pipeline;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 分阶段的事件驱动流水线(SEDA)
+ * 生产者/消费者只有一个阶段一个队列，实际的处理通常是 解析 -> 补全 -> 持久化 这样的多个阶段，瓶颈只在其中一个阶段
+ * <p>
+ * (1)每个阶段有自己的有界队列和工作线程，线程数各自配置，运行时可以单独调整某个阶段的线程数
+ * (2)反压: 下游队列满时上游工作线程阻塞在put上，上游队列随之变满，最终阻塞 submit ---> 不会无限堆积
+ * (3)批处理: 工作线程一次从队列取出最多batchSize个元素交给处理器，适合按批次付出固定开销的阶段(例如批量写库)
+ * (4)每个阶段统计 队列深度、处理个数、平均每批服务时间、利用率、被下游阻塞的时间
+ *    瓶颈: 没有被下游阻塞(自己在干活)并且输入队列最满的阶段；被下游阻塞的阶段队列满只是反压的结果
+ * (5)关闭: 不再接收新元素，从第一个阶段开始依次处理完队列中剩余的元素
+ * <p>
+ * 使用方式:
+ * StagedPipeline<String> pipeline = StagedPipeline.<String>builder()
+ *         .stage("parse", 2, 1024, 1, (batch, out) -> batch.forEach(line -> out.accept(parse(line))))
+ *         .stage("persist", 1, 1024, 64, (batch, out) -> saveAll(batch))
+ *         .build();
+ *
+ * @author CZS
+ * @create 2026-10-20 04:30
+ **/
+public class StagedPipeline<I> {
+    // 工作线程在队列为空时检查关闭状态的间隔
+    private static final long POLL_MILLIS = 10;
+
+    /**
+     * 阶段的处理器
+     *
+     * @param <I> 输入类型
+     * @param <O> 输出类型
+     */
+    @FunctionalInterface
+    public interface StageHandler<I, O> {
+        /**
+         * @param batch      一批输入(至少一个)
+         * @param downstream 交给下一个阶段，下一个阶段的队列满时阻塞；最后一个阶段的downstream丢弃输出
+         */
+        void handle(List<I> batch, Consumer<O> downstream) throws Exception;
+    }
+
+    /**
+     * 某个阶段的统计快照
+     */
+    @Value
+    public static class StageMetrics {
+        String name;
+        int workers;
+        int queueDepth;
+        int queueCapacity;
+        long processed;
+        long failures;
+        long batches;
+        // 平均每批的处理时间(不含被下游阻塞的时间)
+        long avgBatchNanos;
+        // 处理时间 / (线程数 × 区间长度)
+        double utilization;
+        long busyMillis;
+        // 被下游队列阻塞的时间
+        long blockedMillis;
+
+        /**
+         * 被下游阻塞的时间超过处理时间，说明是被反压的阶段
+         */
+        public boolean isBackpressured() {
+            return blockedMillis > busyMillis;
+        }
+    }
+
+    private final List<Stage> stages;
+    private volatile boolean closed;
+
+    private StagedPipeline(List<Stage> stages) {
+        this.stages = stages;
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).start(i + 1 < stages.size() ? stages.get(i + 1) : null);
+        }
+    }
+
+    public static <I> Builder<I, I> builder() {
+        return new Builder<>(new ArrayList<>());
+    }
+
+    /**
+     * 提交到第一个阶段，队列满时阻塞(反压)
+     */
+    public void submit(I item) throws InterruptedException {
+        Stage first = stages.get(0);
+        first.submitters.incrementAndGet();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("pipeline is closed");
+            }
+            first.queue.put(item);
+        } finally {
+            first.submitters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 提交到第一个阶段，队列满时最多等待timeout
+     *
+     * @return false表示超时
+     */
+    public boolean offer(I item, long timeout, TimeUnit unit) throws InterruptedException {
+        Stage first = stages.get(0);
+        first.submitters.incrementAndGet();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("pipeline is closed");
+            }
+            return first.queue.offer(item, timeout, unit);
+        } finally {
+            first.submitters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 调整某个阶段的线程数，不影响其他阶段
+     */
+    public void setWorkers(String stageName, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        stage(stageName).resize(workers);
+    }
+
+    /**
+     * 各阶段的统计，按阶段顺序排列
+     * 除了线程数和队列深度，其他都是距离上一次调用的区间值，调整线程数之后能看到新的利用率
+     */
+    public List<StageMetrics> metrics() {
+        List<StageMetrics> metrics = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            metrics.add(stage.metrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 瓶颈阶段: 没有被反压的阶段中输入队列最满的，一样满时取利用率高的
+     * (批处理的阶段积压少时每批很小，利用率可能很高，但还有很大的余量，只看利用率会误判)
+     * 所有阶段都被反压时，瓶颈在最后一个阶段(它后面没有下游，反压只能从它开始)
+     */
+    public static StageMetrics bottleneck(List<StageMetrics> metrics) {
+        if (metrics.isEmpty()) {
+            throw new IllegalArgumentException("no stage metrics");
+        }
+        StageMetrics bottleneck = null;
+        double bottleneckFill = -1;
+        for (StageMetrics stage : metrics) {
+            if (stage.isBackpressured()) {
+                continue;
+            }
+            double fill = (double) stage.getQueueDepth() / stage.getQueueCapacity();
+            if (fill > bottleneckFill || (fill == bottleneckFill && stage.getUtilization() > bottleneck.getUtilization())) {
+                bottleneck = stage;
+                bottleneckFill = fill;
+            }
+        }
+        return bottleneck != null ? bottleneck : metrics.get(metrics.size() - 1);
+    }
+
+    /**
+     * 不再接收新元素，等待已提交的元素全部处理完
+     *
+     * @return false表示超时
+     */
+    public boolean shutdownAndAwait(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        stages.get(0).upstreamDone = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Stage last = stages.get(stages.size() - 1);
+        synchronized (last) {
+            while (last.live.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(last, remaining);
+            }
+        }
+        return true;
+    }
+
+    private Stage stage(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+        throw new IllegalArgumentException("no such stage: " + name);
+    }
+
+    /**
+     * 按顺序添加阶段，O是当前最后一个阶段的输出类型
+     */
+    public static final class Builder<I, O> {
+        private final List<Stage> stages;
+
+        private Builder(List<Stage> stages) {
+            this.stages = stages;
+        }
+
+        /**
+         * @param name          阶段名
+         * @param workers       工作线程数
+         * @param queueCapacity 输入队列容量
+         * @param batchSize     每批最多处理的元素个数
+         * @param handler
+         * @param <N>           这个阶段的输出类型
+         */
+        @SuppressWarnings("unchecked")
+        public <N> Builder<I, N> stage(String name, int workers, int queueCapacity, int batchSize,
+                                       StageHandler<? super O, N> handler) {
+            if (workers <= 0 || queueCapacity <= 0 || batchSize <= 0) {
+                throw new IllegalArgumentException("workers, queueCapacity and batchSize must be positive");
+            }
+            stages.add(new Stage(name, workers, queueCapacity, batchSize, (StageHandler<Object, Object>) handler));
+            return (Builder<I, N>) this;
+        }
+
+        public StagedPipeline<I> build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("pipeline has no stage");
+            }
+            return new StagedPipeline<>(Collections.unmodifiableList(new ArrayList<>(stages)));
+        }
+    }
+
+    private static final class Stage {
+        final String name;
+        final int batchSize;
+        final BlockingQueue<Object> queue;
+        final StageHandler<Object, Object> handler;
+        // 期望的线程数 与 存活的线程数
+        final AtomicInteger desired;
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger threadIds = new AtomicInteger();
+        // 上一个阶段的线程全部退出(或者流水线关闭)，队列不会再有新元素
+        volatile boolean upstreamDone;
+        // 正在submit/offer的线程数，只用于第一个阶段
+        // 提交者先计数再检查closed，工作线程看到 upstreamDone 之后计数为0 且队列为空才退出，不会漏掉关闭前一刻放入的元素
+        final AtomicInteger submitters = new AtomicInteger();
+        Stage next;
+
+        final LongAdder processed = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        // 上一次统计时的值，只在metrics()中访问
+        long lastMetricsNanos = System.nanoTime();
+        long lastProcessed;
+        long lastFailures;
+        long lastBatches;
+        long lastBusyNanos;
+        long lastBlockedNanos;
+
+        Stage(String name, int workers, int queueCapacity, int batchSize, StageHandler<Object, Object> handler) {
+            this.name = name;
+            this.batchSize = batchSize;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.handler = handler;
+            this.desired = new AtomicInteger(workers);
+        }
+
+        void start(Stage next) {
+            this.next = next;
+            for (int i = 0; i < desired.get(); i++) {
+                startWorker();
+            }
+        }
+
+        synchronized void resize(int workers) {
+            desired.set(workers);
+            // 多出来的线程在下一次取元素之前自己退出
+            while (live.get() < workers) {
+                startWorker();
+            }
+        }
+
+        private void startWorker() {
+            live.incrementAndGet();
+            Thread worker = new Thread(this::work, "pipeline-" + name + "-" + threadIds.incrementAndGet());
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void work() {
+            List<Object> batch = new ArrayList<>(batchSize);
+            // 当前线程被下游阻塞的时间
+            long[] blocked = new long[1];
+            Consumer<Object> downstream = next == null ? item -> {
+            } : item -> sendDownstream(item, blocked);
+            boolean retired = false;
+            try {
+                while (true) {
+                    if (shouldRetire()) {
+                        retired = true;
+                        return;
+                    }
+                    Object first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (upstreamDone && submitters.get() == 0 && queue.isEmpty()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    long begin = System.nanoTime();
+                    blocked[0] = 0;
+                    try {
+                        handler.handle(batch, downstream);
+                        processed.add(batch.size());
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        // Error(例如AssertionError)同样只算这一批失败，不能让线程退出，否则阶段没有线程之后上游会一直阻塞
+                        failures.add(batch.size());
+                    }
+                    // 被下游阻塞的时间不算服务时间
+                    busyNanos.add(System.nanoTime() - begin - blocked[0]);
+                    blockedNanos.add(blocked[0]);
+                    batches.increment();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // 按期望值退出的线程已经在shouldRetire中减过live
+                // 只有本阶段的上游已经结束(真正的关闭)时才通知下游，线程意外退出时上游可能还在提交
+                if (!retired && live.decrementAndGet() == 0 && next != null && upstreamDone) {
+                    next.upstreamDone = true;
+                }
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 线程数多于期望值时退出一个
+         */
+        private boolean shouldRetire() {
+            while (true) {
+                int current = live.get();
+                if (current <= desired.get()) {
+                    return false;
+                }
+                if (live.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void sendDownstream(Object item, long[] blocked) {
+            if (next.queue.offer(item)) {
+                return;
+            }
+            // 下游队列满，阻塞直到有空间(反压)
+            long begin = System.nanoTime();
+            try {
+                next.queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for stage " + next.name, e);
+            } finally {
+                blocked[0] += System.nanoTime() - begin;
+            }
+        }
+
+        /**
+         * 距离上一次调用的区间值
+         */
+        synchronized StageMetrics metrics() {
+            long now = System.nanoTime();
+            long interval = Math.max(now - lastMetricsNanos, 1);
+            long processedCount = processed.sum() - lastProcessed;
+            long failureCount = failures.sum() - lastFailures;
+            long batchCount = batches.sum() - lastBatches;
+            long busy = busyNanos.sum() - lastBusyNanos;
+            long blocked = blockedNanos.sum() - lastBlockedNanos;
+            int workers = live.get();
+            lastMetricsNanos = now;
+            lastProcessed += processedCount;
+            lastFailures += failureCount;
+            lastBatches += batchCount;
+            lastBusyNanos += busy;
+            lastBlockedNanos += blocked;
+            return new StageMetrics(name, workers, queue.size(), queue.size() + queue.remainingCapacity(),
+                    processedCount, failureCount, batchCount,
+                    batchCount == 0 ? 0 : busy / batchCount,
+                    Math.min(1.0, (double) busy / ((double) Math.max(workers, 1) * interval)),
+                    TimeUnit.NANOSECONDS.toMillis(busy), TimeUnit.NANOSECONDS.toMillis(blocked));
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.example.concurrentprogramming.timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮定时器
+ * ScheduledThreadPoolExecutor 用堆保存任务，插入、取消都是O(logN)；AQS的超时等待是每个线程各自定时park
+ * 大量超时(几万个)同时存在、并且大部分在到期之前被取消时，这里的开销更小
+ * <p>
+ * (1)时间轮由 ticksPerWheel 个桶组成，每个tick(tickDuration)前进一格，到期时间对应的桶 = 到期tick % 桶数，剩余圈数 = 到期tick / 桶数
+ * (2)插入: 放入无锁队列，O(1)，由定时线程在下一个tick移入桶中
+ * (3)取消: CAS修改状态，O(1)，再放入取消队列，由定时线程从桶的双向链表中摘除
+ * (4)只有一个定时线程，每个tick只处理当前桶，圈数为0的到期，其余圈数减1
+ * (5)同一个tick到期的任务作为一批执行: 指定了executor时整批提交一次，否则在定时线程中依次执行
+ * <p>
+ * 精度为一个tick，到期任务最多晚一个tick执行，不会提前执行
+ *
+ * @author CZS
+ * @create 2026-10-20 00:40
+ **/
+public class HashedWheelTimer {
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    private static final int WORKER_SHUTDOWN = 2;
+    // 每个tick最多从插入队列移入桶中的数量，避免定时线程被大量插入拖住
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    // 到期任务批量执行的执行器，null表示在定时线程中执行
+    private final Executor taskExecutor;
+    private final Thread workerThread;
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_INIT);
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+    private volatile long startTime;
+
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    // 只由定时线程修改
+    private volatile long expiredBatches;
+
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512, null);
+    }
+
+    /**
+     * @param tickDuration  每格的时间
+     * @param unit          tickDuration的单位
+     * @param ticksPerWheel 桶数，向上取整为2的幂
+     * @param taskExecutor  到期任务批量执行的执行器，null表示在定时线程中执行
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor taskExecutor) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickDuration and ticksPerWheel must be positive");
+        }
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.taskExecutor = taskExecutor;
+        this.workerThread = new Thread(new Worker(), "hashed-wheel-timer");
+        this.workerThread.setDaemon(true);
+    }
+
+    /**
+     * 在delay之后执行task，O(1)
+     *
+     * @return 可以用来取消的句柄
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        start();
+        long deadline = System.nanoTime() + Math.max(unit.toNanos(delay), 0) - startTime;
+        // delay很大(例如Long.MAX_VALUE)时加法溢出为负数，会被当作已经到期，饱和为最大值
+        if (delay > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 延迟提交任务: 到期后把task提交到executor执行，不占用定时线程
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit, Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        return newTimeout(() -> executor.execute(task), delay, unit);
+    }
+
+    /**
+     * 等待中的(尚未到期也未取消的)任务数
+     */
+    public long pendingTimeouts() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 到期任务一共执行了多少批
+     */
+    public long expiredBatches() {
+        return expiredBatches;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * 停止定时线程
+     * 返回的任务不再计入 pendingTimeouts()，状态为已取消
+     *
+     * @return 尚未到期也没有取消的任务
+     */
+    public List<Timeout> stop() {
+        if (Thread.currentThread() == workerThread) {
+            throw new IllegalStateException("stop() cannot be called from a timer task");
+        }
+        if (!workerState.compareAndSet(WORKER_STARTED, WORKER_SHUTDOWN)) {
+            workerState.set(WORKER_SHUTDOWN);
+            return Collections.emptyList();
+        }
+        workerThread.interrupt();
+        boolean interrupted = false;
+        while (workerThread.isAlive()) {
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        List<Timeout> unprocessed = new ArrayList<>();
+        for (Bucket bucket : wheel) {
+            bucket.drainTo(unprocessed);
+        }
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.discard()) {
+                unprocessed.add(timeout);
+            }
+        }
+        return unprocessed;
+    }
+
+    /**
+     * 第一次使用时启动定时线程
+     */
+    private void start() {
+        switch (workerState.get()) {
+            case WORKER_INIT:
+                if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+                    workerThread.start();
+                }
+                break;
+            case WORKER_STARTED:
+                break;
+            default:
+                throw new RejectedExecutionException("timer has been stopped");
+        }
+        // 等待定时线程设置startTime
+        while (startTime == 0) {
+            try {
+                startTimeInitialized.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private long tick;
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            // 0 表示未初始化
+            startTime = now == 0 ? 1 : now;
+            startTimeInitialized.countDown();
+
+            List<Timeout> expired = new ArrayList<>();
+            while (workerState.get() == WORKER_STARTED) {
+                long deadline = waitForNextTick();
+                if (deadline < 0) {
+                    break;
+                }
+                processCancelled();
+                transferPending();
+                wheel[(int) (tick & mask)].expire(deadline, expired);
+                if (!expired.isEmpty()) {
+                    runBatch(expired);
+                    expired = new ArrayList<>();
+                }
+                tick++;
+            }
+            processCancelled();
+        }
+
+        /**
+         * 等待到下一个tick
+         *
+         * @return 当前tick结束时相对startTime的时间，被停止时返回-1
+         */
+        private long waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long current = System.nanoTime() - startTime;
+                long sleepNanos = deadline - current;
+                if (sleepNanos <= 0) {
+                    return current;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (workerState.get() == WORKER_SHUTDOWN) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void transferPending() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                Timeout timeout = pendingTimeouts.poll();
+                if (timeout == null) {
+                    return;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已经过期的放在当前桶，这个tick就执行
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void processCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                Bucket bucket = timeout.bucket;
+                if (bucket != null) {
+                    bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void runBatch(List<Timeout> batch) {
+            expiredBatches++;
+            if (taskExecutor == null) {
+                runAll(batch);
+                return;
+            }
+            try {
+                taskExecutor.execute(() -> runAll(batch));
+            } catch (RejectedExecutionException e) {
+                runAll(batch);
+            }
+        }
+    }
+
+    private static void runAll(List<Timeout> batch) {
+        for (Timeout timeout : batch) {
+            try {
+                timeout.task.run();
+            } catch (Throwable t) {
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, t);
+            }
+        }
+    }
+
+    /**
+     * 一个定时任务的句柄
+     */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        // 相对startTime的到期时间
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // 以下字段只由定时线程访问
+        long remainingRounds;
+        Timeout prev;
+        Timeout next;
+        Bucket bucket;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消，O(1)，由定时线程在下一个tick从桶中摘除
+         *
+         * @return 已经到期或者已经取消时返回false
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        /**
+         * 定时器停止时丢弃，与cancel()一样计数，但不放入取消队列(定时线程已经结束)
+         */
+        boolean discard() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            return true;
+        }
+
+        boolean expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * 桶，侵入式双向链表，只由定时线程访问
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * 圈数为0并且到期的任务放入expired，其余圈数减1
+         */
+        void expire(long deadline, List<Timeout> expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    if (timeout.expire()) {
+                        expired.add(timeout);
+                    }
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void drainTo(List<Timeout> unprocessed) {
+            Timeout timeout;
+            while ((timeout = head) != null) {
+                remove(timeout);
+                if (timeout.discard()) {
+                    unprocessed.add(timeout);
+                }
+            }
+        }
+    }
+}
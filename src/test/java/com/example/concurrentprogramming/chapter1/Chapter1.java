@@ -1,12 +1,41 @@
 package com.example.concurrentprogramming.chapter1;
 
+import com.example.concurrentprogramming.executor.AdaptiveThreadPoolExecutor;
+import com.example.concurrentprogramming.log.AsyncLogger;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author CZS
@@ -14,6 +43,19 @@ import java.util.concurrent.locks.ReentrantLock;
  **/
 @SpringBootTest
 public class Chapter1 {
+    /**
+     * 加锁、synchronized 中打印日志使用异步日志，System.out.println 本身是synchronized的，会改变线程的交错顺序
+     */
+    private static final AsyncLogger LOG = AsyncLogger.console();
+
+    /**
+     * 每个测试结束时写出剩余日志
+     */
+    @AfterEach
+    void flushLog() {
+        LOG.flush();
+    }
+
     public static class MyThread extends Thread {
         @Override
         public void run() {
@@ -85,14 +127,14 @@ public class Chapter1 {
                 try {
                     //获取resourceA共享资源的监视器锁
                     synchronized (resourceA) {
-                        System.out.println("threadA get resourceA lock");
+                        LOG.log("threadA get resourceA lock");
 
                         //获取resourceB共享资源的监视器锁
                         synchronized (resourceB) {
-                            System.out.println("threadA get resourceB lock");
+                            LOG.log("threadA get resourceB lock");
 
                             //阻塞线程A，并释放获取到的resourceA的锁
-                            System.out.println("threadA release resourceA lock");
+                            LOG.log("threadA release resourceA lock");
                             resourceA.wait();
                         }
                     }
@@ -112,16 +154,16 @@ public class Chapter1 {
 
                     //获取resourceA共享资源的监视器锁
                     synchronized (resourceA) {
-                        System.out.println("threadB get resourceA lock");
+                        LOG.log("threadB get resourceA lock");
 
-                        System.out.println("threadB try get resourceB lock...");
+                        LOG.log("threadB try get resourceB lock...");
 
                         //获取resourceB共享资源的监视器锁
                         synchronized (resourceB) {
-                            System.out.println("threadB get resourceB lock");
+                            LOG.log("threadB get resourceB lock");
 
                             //阻塞线程B，并释放获取到的resourceA的锁
-                            System.out.println("threadB release resourceA lock");
+                            LOG.log("threadB release resourceA lock");
                             resourceA.wait();
                         }
                     }
@@ -138,7 +180,7 @@ public class Chapter1 {
         threadA.join();
         threadB.join();
 
-        System.out.println("test over");
+        LOG.log("test over");
     }
 
 
@@ -155,12 +197,12 @@ public class Chapter1 {
             public void run() {
                 //获取resourceA共享资源的监视器锁
                 synchronized (resourceA) {
-                    System.out.println("threadA get resourceA lock");
+                    LOG.log("threadA get resourceA lock");
 
                     try {
-                        System.out.println("threadA begin wait");
+                        LOG.log("threadA begin wait");
                         resourceA.wait();
-                        System.out.println("threadA end wait");
+                        LOG.log("threadA end wait");
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
@@ -174,12 +216,12 @@ public class Chapter1 {
             public void run() {
                 //获取resourceA共享资源的监视器锁
                 synchronized (resourceA) {
-                    System.out.println("threadB get resourceA lock");
+                    LOG.log("threadB get resourceA lock");
 
                     try {
-                        System.out.println("threadB begin wait");
+                        LOG.log("threadB begin wait");
                         resourceA.wait();
-                        System.out.println("threadB end wait");
+                        LOG.log("threadB end wait");
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
@@ -193,7 +235,7 @@ public class Chapter1 {
             public void run() {
                 //获取resourceA共享资源的监视器锁
                 synchronized (resourceA) {
-                    System.out.println("threadC begin notify");
+                    LOG.log("threadC begin notify");
                     resourceA.notify();
 
 //                    System.out.println("threadC begin notifyAll");
@@ -215,7 +257,7 @@ public class Chapter1 {
         threadB.join();
         threadC.join();
 
-        System.out.println("test over");
+        LOG.log("test over");
     }
 
 
@@ -229,7 +271,7 @@ public class Chapter1 {
         Thread threadOne = new Thread(new Runnable() {
             @Override
             public void run() {
-                System.out.println("threadOne begin run!");
+                LOG.log("threadOne begin run!");
                 for (; ; ) {
 
                 }
@@ -264,7 +306,7 @@ public class Chapter1 {
             //在线程2中，会中断主线程，主线程就会在阻塞的这里抛出异常并返回
             threadOne.join();
         } catch (InterruptedException e) {
-            System.out.println("main thread:" + e);
+            LOG.log("main thread:{}", e);
         }
     }
 
@@ -287,9 +329,9 @@ public class Chapter1 {
                 //获取独占锁
                 lock.lock();
                 try {
-                    System.out.println("child threadA sleep");
+                    LOG.log("child threadA sleep");
                     Thread.sleep(10000);
-                    System.out.println("child threadA awake");
+                    LOG.log("child threadA awake");
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } finally {
@@ -305,9 +347,9 @@ public class Chapter1 {
                 //获取独占锁
                 lock.lock();
                 try {
-                    System.out.println("child threadB sleep");
+                    LOG.log("child threadB sleep");
                     Thread.sleep(10000);
-                    System.out.println("child threadB awake");
+                    LOG.log("child threadB awake");
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } finally {
@@ -343,14 +385,14 @@ public class Chapter1 {
             for (int i = 0; i < 5; i++) {
                 //当i=0时让出CPU执行权，放弃时间片，进行下一轮调度
                 if (i == 0) {
-                    System.out.println(Thread.currentThread() + " yield CPU...");
+                    LOG.log("{} yield CPU...", Thread.currentThread());
 
                     //当前线程让出CPU执行权，放弃时间片，进行下一轮调度
                     Thread.yield();//开启或注释会有所不同
                 }
             }
 
-            System.out.println(Thread.currentThread() + " is over");
+            LOG.log("{} is over", Thread.currentThread());
         }
     }
 
@@ -390,7 +432,7 @@ public class Chapter1 {
                 //---> 根据中断标志判断 ---> isInterrupted(): 检测该方法的调用线程是否被中断(不会清除中断标志)
                 //interrupted(): 检测当前线程(并非该方法的调用线程)是否被中断(会清除中断标志)
                 while (!Thread.currentThread().isInterrupted()) {
-                    System.out.println(Thread.currentThread() + " hello");
+                    LOG.log("{} hello", Thread.currentThread());
                 }
             }
         });
@@ -401,12 +443,12 @@ public class Chapter1 {
         Thread.sleep(1000);
 
         //中断子线程
-        System.out.println("mainThread interrupt childThread");
+        LOG.log("mainThread interrupt childThread");
         childThread.interrupt();
 
         //等待子线程执行完毕
         childThread.join();
-        System.out.println("test over");
+        LOG.log("test over");
     }
 
     /**
@@ -424,15 +466,15 @@ public class Chapter1 {
             public void run() {
                 //对sleep、join、wait方法进行try-catch异常处理，该线程被中断后 就可以 提前 从这些方法处返回并等待时间片继续执行
                 try {
-                    System.out.println("childThread begin sleep for 20 seconds");
+                    LOG.log("childThread begin sleep for 20 seconds");
                     Thread.sleep(20000);
-                    System.out.println("childThread awake");
+                    LOG.log("childThread awake");
                 } catch (InterruptedException e) {
-                    System.out.println("childThread is interrupted while sleeping");
+                    LOG.log("childThread is interrupted while sleeping");
                     return;
                 }
 
-                System.out.println("childThread-leaving normally");
+                LOG.log("childThread-leaving normally");
             }
         });
 
@@ -446,7 +488,7 @@ public class Chapter1 {
 
         //等待子线程执行完毕
         childThread.join();
-        System.out.println("test over");
+        LOG.log("test over");
     }
 
 
@@ -473,7 +515,7 @@ public class Chapter1 {
                 /******************************** ③不可剥夺条件 ********************************/
                 /** 线程A 获取到 resourceA 之后，在自己主动释放 resourceA 之前，都不会被 线程B 抢占 **/
                 synchronized (resourceA) {
-                    System.out.println(Thread.currentThread() + "(threadA) get resourceA");
+                    LOG.log("{}(threadA) get resourceA", Thread.currentThread());
 
                     //让其他线程能获取到锁
                     try {
@@ -482,15 +524,15 @@ public class Chapter1 {
                         e.printStackTrace();
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadA) waiting get resourceB");
+                    LOG.log("{}(threadA) waiting get resourceB", Thread.currentThread());
                     //进一步获取resourceB的锁
                     /*********************************************** ②请求并持有条件 ***********************************************/
                     /** 线程A获取到resourceA之后，尝试获取 已被占用线程B占用的resourceB，因此进入阻塞等待，同时并没有释放自己占用的resourceA **/
                     synchronized (resourceB) {
-                        System.out.println(Thread.currentThread() + "(threadA) get resourceB");
+                        LOG.log("{}(threadA) get resourceB", Thread.currentThread());
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadA) over");
+                    LOG.log("{}(threadA) over", Thread.currentThread());
                 }
             }
         });
@@ -502,7 +544,7 @@ public class Chapter1 {
                 /******************************** ③不可剥夺条件 ********************************/
                 /** 线程B 获取到 resourceB 之后，在自己主动释放 resourceB 之前，都不会被 线程A 抢占 **/
                 synchronized (resourceB) {
-                    System.out.println(Thread.currentThread() + "(threadB) get resourceB");
+                    LOG.log("{}(threadB) get resourceB", Thread.currentThread());
 
                     //让其他线程能获取到锁
                     try {
@@ -511,15 +553,15 @@ public class Chapter1 {
                         e.printStackTrace();
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadB) waiting get resourceA");
+                    LOG.log("{}(threadB) waiting get resourceA", Thread.currentThread());
                     //进一步获取resourceA的锁
                     /*********************************************** ②请求并持有条件 ***********************************************/
                     /** 线程B获取到resourceB之后，尝试获取 已被占用线程A占用的resourceA，因此进入阻塞等待，同时并没有释放自己占用的resourceB **/
                     synchronized (resourceA) {
-                        System.out.println(Thread.currentThread() + "(threadB) get resourceA");
+                        LOG.log("{}(threadB) get resourceA", Thread.currentThread());
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadB) over");
+                    LOG.log("{}(threadB) over", Thread.currentThread());
                 }
             }
         });
@@ -549,7 +591,7 @@ public class Chapter1 {
             public void run() {
                 //获取resourceA的锁
                 synchronized (resourceA) {
-                    System.out.println(Thread.currentThread() + "(threadA) get resourceA");
+                    LOG.log("{}(threadA) get resourceA", Thread.currentThread());
 
                     //让其他线程能获取到锁
                     try {
@@ -558,13 +600,13 @@ public class Chapter1 {
                         e.printStackTrace();
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadA) waiting get resourceB");
+                    LOG.log("{}(threadA) waiting get resourceB", Thread.currentThread());
                     //进一步获取resourceB的锁
                     synchronized (resourceB) {
-                        System.out.println(Thread.currentThread() + "(threadA) get resourceB");
+                        LOG.log("{}(threadA) get resourceB", Thread.currentThread());
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadA) over");
+                    LOG.log("{}(threadA) over", Thread.currentThread());
                 }
             }
         });
@@ -579,7 +621,7 @@ public class Chapter1 {
 
                 //获取resourceA的锁
                 synchronized (resourceA) {
-                    System.out.println(Thread.currentThread() + "(threadB) get resourceA");
+                    LOG.log("{}(threadB) get resourceA", Thread.currentThread());
 
                     //让其他线程能获取到锁
                     try {
@@ -588,13 +630,13 @@ public class Chapter1 {
                         e.printStackTrace();
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadB) waiting get resourceB");
+                    LOG.log("{}(threadB) waiting get resourceB", Thread.currentThread());
                     //进一步获取resourceB的锁
                     synchronized (resourceB) {
-                        System.out.println(Thread.currentThread() + "(threadB) get resourceB");
+                        LOG.log("{}(threadB) get resourceB", Thread.currentThread());
                     }
 
-                    System.out.println(Thread.currentThread() + "(threadB) over");
+                    LOG.log("{}(threadB) over", Thread.currentThread());
                 }
             }
         });
@@ -682,4 +724,660 @@ public class Chapter1 {
         System.out.println("parentThread threadLocal: " + threadLocal.get());
         System.out.println("parentThread inheritableThreadLocal: " + inheritableThreadLocal.get());
     }
+
+
+    //请求上下文(比如traceId)
+    public static ThreadLocal<String> traceId = new ThreadLocal<>();
+
+    /**
+     * 线程池中的上下文传递
+     * InheritableThreadLocal 只在创建线程时继承，线程池中的线程被复用，第二个请求拿到的还是第一个请求的值
+     * ContextPropagation 在提交任务时捕获，在执行前回放，执行后恢复 ---> 每个任务拿到的都是提交时的值，且不会残留在池化线程中
+     *
+     * @throws Exception
+     */
+    @Test
+    void contextPropagation() throws Exception {
+        ContextPropagation.register(traceId);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Executor propagating = ContextPropagation.wrap(pool);
+        try {
+            //①第一个请求
+            traceId.set("trace-1");
+            propagating.execute(() -> System.out.println("task1 traceId: " + traceId.get()));
+
+            //②第二个请求，复用同一个线程
+            traceId.set("trace-2");
+            propagating.execute(() -> System.out.println("task2 traceId: " + traceId.get()));
+
+            //③直接提交到线程池的任务，看不到前面任务的上下文(已被恢复)
+            pool.submit(() -> System.out.println("plain task traceId: " + traceId.get())).get();
+
+            //④withInitial的get()在没有值时执行初始化代码，不能区分没有值，注册时拒绝
+            try {
+                ContextPropagation.register(ThreadLocal.withInitial(() -> "initial"));
+            } catch (IllegalArgumentException e) {
+                System.out.println("register withInitial rejected: " + e.getMessage());
+            }
+        } finally {
+            traceId.remove();
+            ContextPropagation.unregister(traceId);
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * 使用工作窃取调度器执行 Chapter1 中的 RunnableTask 和 CallerTask，不再为每个任务创建线程
+     *
+     * @throws Exception
+     */
+    @Test
+    void workStealingScheduler() throws Exception {
+        WorkStealingScheduler scheduler = new WorkStealingScheduler(4);
+        try {
+            scheduler.execute(new RunnableTask());
+            Future<String> future = scheduler.submit(new CallerTask());
+            System.out.println(future.get());
+        } finally {
+            scheduler.shutdown();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        }
+
+        // 关闭与外部提交并发: 被接受的任务都会执行，关闭之后的提交被拒绝
+        for (int round = 0; round < 100; round++) {
+            WorkStealingScheduler racing = new WorkStealingScheduler(2);
+            LongAdder executed = new LongAdder();
+            long[] accepted = new long[1];
+            Thread submitter = new Thread(() -> {
+                try {
+                    while (true) {
+                        racing.execute(executed::increment);
+                        accepted[0]++;
+                    }
+                } catch (RejectedExecutionException e) {
+                    // 已关闭
+                }
+            });
+            submitter.start();
+            Thread.sleep(1);
+            racing.shutdown();
+            submitter.join();
+            assertTrue(racing.awaitTermination(1, TimeUnit.SECONDS));
+            assertEquals(accepted[0], executed.sum());
+        }
+    }
+
+    /**
+     * 模拟计算量为work的细粒度任务
+     */
+    private static long burn(int work) {
+        long x = work;
+        for (int i = 0; i < work; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+
+    /**
+     * 倾斜的递归任务: 第i个根任务拆分出 2^(i % 8) 个子任务，每个子任务再拆分出叶子任务
+     * 工作窃取调度器: 子任务放入当前工作线程自己的队列，空闲线程从顶部窃取
+     * ThreadPoolExecutor: 所有任务进入同一个共享队列
+     */
+    private static long runSkewedWorkload(Executor executor, int roots) throws InterruptedException {
+        final int LEAVES_PER_CHILD = 16;
+        final int LEAF_WORK = 2_000;
+        long totalLeaves = 0;
+        for (int i = 0; i < roots; i++) {
+            totalLeaves += (1L << (i % 8)) * LEAVES_PER_CHILD;
+        }
+        CountDownLatch done = new CountDownLatch((int) totalLeaves);
+        AtomicLong sink = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < roots; i++) {
+            final int children = 1 << (i % 8);
+            executor.execute(() -> {
+                for (int c = 0; c < children; c++) {
+                    executor.execute(() -> {
+                        for (int l = 0; l < LEAVES_PER_CHILD; l++) {
+                            executor.execute(() -> {
+                                sink.addAndGet(burn(LEAF_WORK) & 1);
+                                done.countDown();
+                            });
+                        }
+                    });
+                }
+            });
+        }
+        done.await();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 工作窃取调度器 与 固定大小ThreadPoolExecutor 在倾斜任务下的耗时对比
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void workStealingVsThreadPoolExecutor() throws InterruptedException {
+        final int PARALLELISM = 4;
+        final int ROOTS = 256;
+        for (int round = 0; round < 3; round++) {
+            WorkStealingScheduler scheduler = new WorkStealingScheduler(PARALLELISM);
+            long stealingCost = runSkewedWorkload(scheduler, ROOTS);
+            long steals = scheduler.getStealCount();
+            scheduler.shutdown();
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            long poolCost = runSkewedWorkload(pool, ROOTS);
+            pool.shutdown();
+
+            System.out.println("round " + round + ": WorkStealingScheduler " + stealingCost + "ms (steals " + steals + ")"
+                    + ", ThreadPoolExecutor " + poolCost + "ms");
+        }
+    }
+
+    /**
+     * 自适应线程池: 阻塞型任务(每个sleep 10ms)以约400个/秒的速率提交
+     * (1)线程数不够 ---> 排队延迟升高 ---> 扩容到接近利特尔法则估算值(400/s × 10ms ≈ 4，加上余量)
+     * (2)任务改为受限于只有2个许可的下游资源 ---> 扩容吞吐量不再提升 ---> 退回并暂停扩容
+     * (3)停止提交 ---> 利用率降低 ---> 缩容到最少线程数
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void adaptiveThreadPoolExecutor() throws InterruptedException {
+        AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor(1, 32, 10_000,
+                new ThreadPoolExecutor.CallerRunsPolicy(), 5, 200, TimeUnit.MILLISECONDS, "adaptive-");
+        Semaphore downstream = new Semaphore(2);
+        try {
+            //①阻塞型任务
+            submitAtRate(executor, 400, 2_000, () -> sleep(10));
+            System.out.println("after blocking phase: poolSize " + executor.getCorePoolSize());
+
+            //②瓶颈在下游，加线程没有用
+            submitAtRate(executor, 400, 2_000, () -> {
+                downstream.acquireUninterruptibly();
+                try {
+                    sleep(10);
+                } finally {
+                    downstream.release();
+                }
+            });
+            System.out.println("after downstream-bound phase: poolSize " + executor.getCorePoolSize());
+
+            //③空闲
+            while (executor.getQueue().size() > 0) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(3_000);
+            System.out.println("after idle phase: poolSize " + executor.getCorePoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+        for (AdaptiveThreadPoolExecutor.Decision decision : executor.getDecisions()) {
+            System.out.printf("%d -> %d threads: %s (throughput %.0f/s, queue delay %.2fms, utilization %.0f%%)%n",
+                    decision.getPreviousThreads(), decision.getNewThreads(), decision.getReason(),
+                    decision.getThroughput(), decision.getAvgQueueDelayMillis(), decision.getUtilization() * 100);
+        }
+    }
+
+    private static void submitAtRate(Executor executor, int perSecond, long durationMillis, Runnable task) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        long start = System.nanoTime();
+        long next = start;
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(durationMillis)) {
+            executor.execute(task);
+            next += intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 用STM改写 waitAndDeadLock、deadLockCondition 的场景: 两个线程以相反的顺序同时更新 resourceA 和 resourceB
+     * 不需要约定获取锁的顺序也不会死锁，两个资源的总和始终不变
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void stmNoDeadLock() throws InterruptedException {
+        Stm.Ref<Integer> stmResourceA = new Stm.Ref<>(1000);
+        Stm.Ref<Integer> stmResourceB = new Stm.Ref<>(1000);
+        final int ROUNDS = 100_000;
+
+        Thread threadA = new Thread(() -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                // 先A后B
+                Stm.atomic(tx -> {
+                    stmResourceA.set(tx, stmResourceA.get(tx) - 1);
+                    stmResourceB.set(tx, stmResourceB.get(tx) + 1);
+                    return null;
+                });
+            }
+        });
+        Thread threadB = new Thread(() -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                // 先B后A
+                Stm.atomic(tx -> {
+                    stmResourceB.set(tx, stmResourceB.get(tx) - 1);
+                    stmResourceA.set(tx, stmResourceA.get(tx) + 1);
+                    return null;
+                });
+            }
+        });
+        threadA.start();
+        threadB.start();
+        threadA.join();
+        threadB.join();
+        System.out.println("resourceA " + stmResourceA.peek() + ", resourceB " + stmResourceB.peek()
+                + ", commits " + Stm.getCommitCount() + ", aborts " + Stm.getAbortCount());
+    }
+
+    /**
+     * 银行转账: STM 与 按账户编号顺序嵌套synchronized 的吞吐量对比
+     * 90%的操作在两个随机账户之间转账，10%的操作是只读的对账(所有账户求和)
+     * synchronized对账要按顺序锁住所有账户，STM对账是只读事务，不阻塞转账
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void stmVsOrderedSynchronized() throws InterruptedException {
+        final int ACCOUNTS = 64;
+        final int THREADS = 4;
+        final long DURATION_MS = 2_000;
+        final int INITIAL = 1_000;
+
+        for (int round = 0; round < 2; round++) {
+            List<Stm.Ref<Integer>> stmAccounts = new ArrayList<>();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                stmAccounts.add(new Stm.Ref<>(INITIAL));
+            }
+            long abortsBefore = Stm.getAbortCount();
+            AtomicLong stmAuditErrors = new AtomicLong();
+            long stmOps = runForDuration(THREADS, DURATION_MS, random -> {
+                if (random.nextInt(10) == 0) {
+                    int total = Stm.atomic(tx -> {
+                        int sum = 0;
+                        for (Stm.Ref<Integer> account : stmAccounts) {
+                            sum += account.get(tx);
+                        }
+                        return sum;
+                    });
+                    if (total != ACCOUNTS * INITIAL) {
+                        stmAuditErrors.incrementAndGet();
+                    }
+                } else {
+                    Stm.Ref<Integer> from = stmAccounts.get(random.nextInt(ACCOUNTS));
+                    Stm.Ref<Integer> to = stmAccounts.get(random.nextInt(ACCOUNTS));
+                    int amount = random.nextInt(10);
+                    Stm.atomic(tx -> {
+                        from.set(tx, from.get(tx) - amount);
+                        to.set(tx, to.get(tx) + amount);
+                        return null;
+                    });
+                }
+            });
+
+            BankAccount[] accounts = new BankAccount[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new BankAccount(i, INITIAL);
+            }
+            AtomicLong syncAuditErrors = new AtomicLong();
+            long syncOps = runForDuration(THREADS, DURATION_MS, random -> {
+                if (random.nextInt(10) == 0) {
+                    if (BankAccount.audit(accounts, 0) != ACCOUNTS * INITIAL) {
+                        syncAuditErrors.incrementAndGet();
+                    }
+                } else {
+                    BankAccount.transfer(accounts[random.nextInt(ACCOUNTS)], accounts[random.nextInt(ACCOUNTS)], random.nextInt(10));
+                }
+            });
+
+            System.out.println("round " + round + ": STM " + stmOps * 1000 / DURATION_MS + " ops/s (aborts "
+                    + (Stm.getAbortCount() - abortsBefore) + ", audit errors " + stmAuditErrors.get() + "), ordered synchronized "
+                    + syncOps * 1000 / DURATION_MS + " ops/s (audit errors " + syncAuditErrors.get() + ")");
+        }
+    }
+
+    /**
+     * 用synchronized保护的账户，按id顺序加锁避免死锁
+     */
+    static final class BankAccount {
+        final int id;
+        int balance;
+
+        BankAccount(int id, int balance) {
+            this.id = id;
+            this.balance = balance;
+        }
+
+        static void transfer(BankAccount from, BankAccount to, int amount) {
+            if (from == to) {
+                return;
+            }
+            BankAccount first = from.id < to.id ? from : to;
+            BankAccount second = first == from ? to : from;
+            synchronized (first) {
+                synchronized (second) {
+                    from.balance -= amount;
+                    to.balance += amount;
+                }
+            }
+        }
+
+        /**
+         * 按顺序递归锁住从index开始的所有账户后求和
+         */
+        static int audit(BankAccount[] accounts, int index) {
+            if (index == accounts.length) {
+                return 0;
+            }
+            synchronized (accounts[index]) {
+                return accounts[index].balance + audit(accounts, index + 1);
+            }
+        }
+    }
+
+    /**
+     * 多个线程在固定时间内反复执行operation，返回总执行次数
+     */
+    private static long runForDuration(int threadCount, long durationMillis, Consumer<ThreadLocalRandom> operation)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (!stop.get()) {
+                    operation.accept(random);
+                    count++;
+                }
+                ops.add(count);
+            });
+            threads[i].start();
+        }
+        Thread.sleep(durationMillis);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return ops.sum();
+    }
+
+    /**
+     * 惊群场景: HERD个线程同时请求同一批key，每次计算耗时20ms
+     * 先检查再计算(ConcurrentHashMap get -> compute -> put): 同一个key会被多个线程重复计算
+     * Memoizer: 每个key只计算一次，其他线程等待同一个FutureTask
+     *
+     * @throws Exception
+     */
+    @Test
+    void memoizerThunderingHerd() throws Exception {
+        final int HERD = 32;
+        final int KEYS = 8;
+        final int ROUNDS = 20;
+        AtomicLong naiveComputations = new AtomicLong();
+        Function<Integer, String> expensive = key -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value-" + key;
+        };
+
+        // 先检查再计算
+        Map<Integer, String> naiveCache = new ConcurrentHashMap<>();
+        long naiveCost = runHerd(HERD, () -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int key = 0; key < KEYS; key++) {
+                    String value = naiveCache.get(key);
+                    if (value == null) {
+                        naiveComputations.incrementAndGet();
+                        value = expensive.apply(key);
+                        naiveCache.put(key, value);
+                    }
+                }
+            }
+        });
+
+        // Memoizer
+        Memoizer<Integer, String> memoizer = new Memoizer<>(expensive, 1_000);
+        long memoizerCost = runHerd(HERD, () -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int key = 0; key < KEYS; key++) {
+                    try {
+                        memoizer.compute(key);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+        });
+
+        long lookups = (long) HERD * ROUNDS * KEYS;
+        System.out.println("check-then-compute: " + naiveComputations.get() + " computations for " + KEYS + " keys, "
+                + naiveCost + "ms, " + lookups * 1000 / Math.max(naiveCost, 1) + " lookups/s");
+        System.out.println("Memoizer: " + memoizer.getComputationCount() + " computations, joined in-flight "
+                + memoizer.getJoinedCount() + ", hits " + memoizer.getHitCount() + ", "
+                + memoizerCost + "ms, " + lookups * 1000 / Math.max(memoizerCost, 1) + " lookups/s");
+
+        // 失败的计算不缓存，下次重新计算
+        AtomicInteger attempts = new AtomicInteger();
+        Memoizer<String, Integer> flaky = new Memoizer<>(key -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("first attempt fails");
+            }
+            return attempts.get();
+        }, 10, 50, TimeUnit.MILLISECONDS);
+        try {
+            flaky.compute("k");
+        } catch (ExecutionException e) {
+            System.out.println("first call failed: " + e.getCause().getMessage() + ", cached entries " + flaky.size());
+        }
+        System.out.println("second call: " + flaky.compute("k") + ", third call (cached): " + flaky.compute("k"));
+        Thread.sleep(100);
+        System.out.println("after expiry: " + flaky.compute("k") + ", computations " + flaky.getComputationCount());
+
+        // 过期的条目不等到下次访问，放入新条目时从最早的一端清理；invalidate 同时删除放入顺序
+        Memoizer<Integer, Integer> shortLived = new Memoizer<>(key -> key, 1_000, 20, TimeUnit.MILLISECONDS);
+        for (int key = 0; key < 100; key++) {
+            shortLived.compute(key);
+        }
+        Thread.sleep(50);
+        shortLived.compute(-1);
+        System.out.println("after expiry and one insert: " + shortLived.size() + " entries");
+        for (int key = 0; key < 100_000; key++) {
+            shortLived.compute(key);
+            shortLived.invalidate(key);
+        }
+        System.out.println("after 100000 compute + invalidate: " + shortLived.size() + " entries, insertion order "
+                + shortLived.insertionOrderSize());
+    }
+
+    /**
+     * scatter-gather: 同时调用DOWNSTREAM个下游，耗时分别为 20ms、40ms ... ，第2个调用在30ms时失败
+     * 各自启动线程 + 逐个join: 失败之后其他调用继续执行到结束，调用方要等最慢的那个
+     * TaskScope(ALL_SUCCESSFUL): 第一个失败时中断其他调用，调用方立即拿到失败
+     * TaskScope(ANY_SUCCESSFUL): 对冲请求，第一个成功返回后取消其他副本
+     * 截止时间: 子任务通过 TaskScope.remainingNanos() 得到剩余时间，子任务中创建的作用域继承截止时间
+     *
+     * @throws Exception
+     */
+    @Test
+    void taskScopeScatterGather() throws Exception {
+        final int DOWNSTREAM = 8;
+        final int FAILING = 1;
+        AtomicLong workMillis = new AtomicLong();
+        List<Callable<String>> calls = new ArrayList<>();
+        for (int i = 0; i < DOWNSTREAM; i++) {
+            final int id = i;
+            calls.add(() -> {
+                if (id == FAILING) {
+                    downstream(30, workMillis);
+                    throw new IllegalStateException("downstream-" + id + " failed");
+                }
+                downstream(20 * (id + 1), workMillis);
+                return "downstream-" + id;
+            });
+        }
+
+        // 各自启动线程，逐个join
+        long start = System.nanoTime();
+        List<FutureTask<String>> tasks = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Callable<String> call : calls) {
+            FutureTask<String> task = new FutureTask<>(call);
+            tasks.add(task);
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        String naiveError = null;
+        for (FutureTask<String> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                naiveError = e.getCause().getMessage();
+                break;
+            }
+        }
+        long naiveLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long naiveWork = workMillis.getAndSet(0);
+
+        // TaskScope: 第一个失败时取消其他调用
+        start = System.nanoTime();
+        String scopeError = null;
+        int cancelled;
+        try (TaskScope<String> scope = new TaskScope<>(TaskScope.Policy.ALL_SUCCESSFUL)) {
+            for (Callable<String> call : calls) {
+                scope.fork(call);
+            }
+            try {
+                scope.join().results();
+            } catch (ExecutionException e) {
+                scopeError = e.getCause().getMessage();
+            }
+            cancelled = scope.getCancelledCount();
+        }
+        long scopeLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long scopeWork = workMillis.getAndSet(0);
+
+        System.out.println("start + join one by one: " + naiveError + " after " + naiveLatency + "ms, downstream work "
+                + naiveWork + "ms");
+        System.out.println("TaskScope(ALL_SUCCESSFUL): " + scopeError + " after " + scopeLatency + "ms, downstream work "
+                + scopeWork + "ms, cancelled " + cancelled);
+
+        // 对冲请求: 三个副本，第一个成功的返回
+        start = System.nanoTime();
+        try (TaskScope<String> scope = new TaskScope<>(TaskScope.Policy.ANY_SUCCESSFUL)) {
+            int[] replicaLatency = {80, 15, 120};
+            for (int i = 0; i < replicaLatency.length; i++) {
+                final int replica = i;
+                scope.fork(() -> {
+                    downstream(replicaLatency[replica], workMillis);
+                    return "replica-" + replica;
+                });
+            }
+            String winner = scope.join().results().get(0);
+            System.out.println("TaskScope(ANY_SUCCESSFUL): " + winner + " after "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, downstream work "
+                    + workMillis.getAndSet(0) + "ms, cancelled " + scope.getCancelledCount());
+        }
+
+        // 截止时间传递给子任务以及子任务中的作用域
+        start = System.nanoTime();
+        try (TaskScope<String> scope = new TaskScope<>(TaskScope.Policy.ALL_SUCCESSFUL, 50, TimeUnit.MILLISECONDS)) {
+            scope.fork(() -> {
+                System.out.println("child sees " + TimeUnit.NANOSECONDS.toMillis(TaskScope.remainingNanos())
+                        + "ms remaining");
+                // 子任务中的作用域要求200ms，但不会晚于父作用域的50ms
+                try (TaskScope<String> nested = new TaskScope<>(TaskScope.Policy.ALL_SUCCESSFUL, 200, TimeUnit.MILLISECONDS)) {
+                    nested.fork(() -> {
+                        downstream(500, workMillis);
+                        return "slow";
+                    });
+                    return nested.join().results().get(0);
+                }
+            });
+            // 父作用域先到期 ---> join()抛出TimeoutException；
+            // 子任务中的作用域先到期 ---> 子任务失败，ALL_SUCCESSFUL结束作用域，join()正常返回，results()抛出ExecutionException
+            Throwable failure;
+            try {
+                scope.join().results();
+                failure = null;
+            } catch (TimeoutException e) {
+                failure = e;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+            assertTrue(failure instanceof TimeoutException, "expected a deadline failure: " + failure);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println("deadline: " + failure.getMessage() + " after " + elapsed + "ms, downstream work "
+                    + workMillis.getAndSet(0) + "ms");
+            assertTrue(elapsed < 500);
+        }
+
+        // 超大的超时时间饱和为没有截止时间，不会因为溢出立即超时
+        try (TaskScope<String> scope = new TaskScope<>(TaskScope.Policy.ALL_SUCCESSFUL, 1_000_000, TimeUnit.DAYS)) {
+            scope.fork(() -> TaskScope.remainingNanos() == Long.MAX_VALUE ? "unbounded" : "bounded");
+            assertEquals("unbounded", scope.join().results().get(0));
+        }
+    }
+
+    /**
+     * 模拟下游调用: 每1ms记一次工作量，被中断时立即返回
+     */
+    private static void downstream(long millis, AtomicLong workMillis) throws InterruptedException {
+        for (long i = 0; i < millis; i++) {
+            Thread.sleep(1);
+            workMillis.incrementAndGet();
+        }
+    }
+
+    /**
+     * HERD个线程在同一时刻开始执行task，返回全部完成的耗时(ms)
+     */
+    private static long runHerd(int herd, Runnable task) throws InterruptedException {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] threads = new Thread[herd];
+        for (int i = 0; i < herd; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            });
+            threads[i].start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
 }
@@ -0,0 +1,182 @@
+package com.example.concurrentprogramming.chapter1;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * 线程池场景下的上下文传递
+ * InheritableThreadLocal 只在 创建子线程时 复制一次父线程的变量，而线程池中的线程是复用的
+ * ---> 提交任务时线程早已创建好，拿到的是旧值或者根本拿不到
+ * <p>
+ * 做法: 在 提交任务时 捕获(capture)已注册的ThreadLocal的值，在 任务执行前 回放(replay)到执行线程，
+ * 任务执行完之后 恢复(restore)执行线程原来的值，保证池化线程不会泄露上一个任务的上下文
+ * <p>
+ * 注册表使用 写时复制 的数组: 注册很少发生，复制一次数组；捕获很频繁，只读一次volatile引用，不加锁
+ * <p>
+ * 只能注册 ThreadLocal/InheritableThreadLocal 本身(不能是子类，例如 ThreadLocal.withInitial):
+ * ThreadLocal没有公开的"是否有值"的方法，只能通过get()判断，子类的get()在没有值时会执行initialValue()，
+ * 捕获时会在提交线程中执行初始化代码，回放时把初始值当成执行线程原来的值，恢复时set回去而不是remove
+ * ---> 本身的initialValue()返回null，get()返回null 就表示没有值，恢复时直接remove
+ *
+ * @author CZS
+ * @create 2026-10-19 10:12
+ **/
+public final class ContextPropagation {
+    private static final ThreadLocal<?>[] EMPTY = new ThreadLocal<?>[0];
+
+    // 已注册的ThreadLocal，写时复制
+    private static volatile ThreadLocal<?>[] registered = EMPTY;
+
+    private ContextPropagation() {
+    }
+
+    /**
+     * 注册需要传递的ThreadLocal变量，重复注册会被忽略
+     *
+     * @param threadLocal ThreadLocal 或 InheritableThreadLocal，不能是子类
+     * @throws IllegalArgumentException threadLocal是子类，get()不能区分没有值和初始值
+     */
+    public static synchronized void register(ThreadLocal<?> threadLocal) {
+        Class<?> type = threadLocal.getClass();
+        if (type != ThreadLocal.class && type != InheritableThreadLocal.class) {
+            throw new IllegalArgumentException("only plain ThreadLocal/InheritableThreadLocal can be propagated, got "
+                    + type.getName() + ": its get() may run initialValue() and cannot tell an absent value");
+        }
+        ThreadLocal<?>[] current = registered;
+        for (ThreadLocal<?> t : current) {
+            if (t == threadLocal) {
+                return;
+            }
+        }
+        ThreadLocal<?>[] copy = new ThreadLocal<?>[current.length + 1];
+        System.arraycopy(current, 0, copy, 0, current.length);
+        copy[current.length] = threadLocal;
+        registered = copy;
+    }
+
+    /**
+     * 取消注册
+     *
+     * @param threadLocal
+     */
+    public static synchronized void unregister(ThreadLocal<?> threadLocal) {
+        ThreadLocal<?>[] current = registered;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == threadLocal) {
+                ThreadLocal<?>[] copy = new ThreadLocal<?>[current.length - 1];
+                System.arraycopy(current, 0, copy, 0, i);
+                System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+                registered = copy;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 捕获当前线程中所有已注册ThreadLocal的值，null表示没有值
+     * 快照持有注册表数组的引用(不复制)，只额外分配一个存放值的数组
+     *
+     * @return
+     */
+    public static Snapshot capture() {
+        ThreadLocal<?>[] locals = registered;
+        Object[] values = new Object[locals.length];
+        for (int i = 0; i < locals.length; i++) {
+            values[i] = locals[i].get();
+        }
+        return new Snapshot(locals, values);
+    }
+
+    /**
+     * 包装Runnable: 提交时捕获，执行时回放，执行后恢复
+     *
+     * @param task
+     * @return
+     */
+    public static Runnable wrap(Runnable task) {
+        final Snapshot snapshot = capture();
+        return () -> {
+            Snapshot backup = snapshot.replay();
+            try {
+                task.run();
+            } finally {
+                backup.restore();
+            }
+        };
+    }
+
+    /**
+     * 包装Callable: 提交时捕获，执行时回放，执行后恢复
+     *
+     * @param task
+     * @param <V>
+     * @return
+     */
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        final Snapshot snapshot = capture();
+        return () -> {
+            Snapshot backup = snapshot.replay();
+            try {
+                return task.call();
+            } finally {
+                backup.restore();
+            }
+        };
+    }
+
+    /**
+     * 包装任意Executor，之后通过它提交的任务都会自动传递上下文
+     *
+     * @param executor
+     * @return
+     */
+    public static Executor wrap(Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+
+    /**
+     * 某一时刻已注册ThreadLocal的值的快照(不可变)
+     */
+    public static final class Snapshot {
+        private final ThreadLocal<?>[] locals;
+        private final Object[] values;
+
+        private Snapshot(ThreadLocal<?>[] locals, Object[] values) {
+            this.locals = locals;
+            this.values = values;
+        }
+
+        /**
+         * 把快照的值设置到当前线程，返回当前线程原来的值(用于之后恢复)
+         * 原来没有值时get()返回null(注册时已保证不会执行initialValue())，恢复时remove
+         *
+         * @return
+         */
+        public Snapshot replay() {
+            Object[] backup = new Object[locals.length];
+            for (int i = 0; i < locals.length; i++) {
+                backup[i] = locals[i].get();
+                set(locals[i], values[i]);
+            }
+            return new Snapshot(locals, backup);
+        }
+
+        /**
+         * 把当前线程的值恢复为快照中的值，原来没有值的直接remove，避免残留
+         */
+        public void restore() {
+            for (int i = 0; i < locals.length; i++) {
+                set(locals[i], values[i]);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void set(ThreadLocal<?> threadLocal, Object value) {
+            if (value == null) {
+                threadLocal.remove();
+            } else {
+                ((ThreadLocal<Object>) threadLocal).set(value);
+            }
+        }
+    }
+}
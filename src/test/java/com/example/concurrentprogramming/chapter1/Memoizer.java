@@ -0,0 +1,251 @@
+package com.example.concurrentprogramming.chapter1;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 基于FutureTask的计算结果缓存
+ * 多个线程同时计算同一个key时，只有第一个线程放入FutureTask并执行计算，其他线程等待同一个FutureTask的结果
+ * ---> 同一个key同一时刻只计算一次(先检查再计算 的写法在并发时会重复计算)
+ * <p>
+ * (1)计算失败(抛异常) 或 被取消 的FutureTask从缓存中删除，下次调用重新计算，失败的结果不会被缓存
+ * (2)计算完成之后超过 expireAfterWrite 视为过期，下次调用重新计算；
+ *    放入新条目时顺带从最早的一端清理已经过期的条目，cleanUp() 清理全部过期条目，过期条目不会一直占着缓存
+ * (3)条目数超过 maximumSize 时按放入顺序淘汰最早的条目(正在等待该条目的线程仍然能拿到结果)
+ *    放入顺序用 序号 ---> 条目 的有序map记录，条目从缓存中删除(淘汰、过期、失败、取消、invalidate)时同时从中删除，两者大小一致
+ *
+ * @author CZS
+ * @create 2026-10-20 02:10
+ **/
+public class Memoizer<K, V> {
+    private final Function<? super K, ? extends V> function;
+    private final long maximumSize;
+    private final long expireAfterWriteNanos;
+
+    private final ConcurrentHashMap<K, Entry<K, V>> cache = new ConcurrentHashMap<>();
+    // 放入顺序，用于按容量淘汰和清理过期条目，只包含仍在缓存中的条目(放入的瞬间除外)
+    private final ConcurrentSkipListMap<Long, Entry<K, V>> insertionOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder computations = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param function         计算函数
+     * @param maximumSize      最大条目数
+     * @param expireAfterWrite 计算完成后多久过期，<=0 表示不过期
+     * @param unit             expireAfterWrite的单位
+     */
+    public Memoizer(Function<? super K, ? extends V> function, long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        if (function == null) {
+            throw new NullPointerException();
+        }
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.function = function;
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = expireAfterWrite <= 0 ? Long.MAX_VALUE : unit.toNanos(expireAfterWrite);
+    }
+
+    public Memoizer(Function<? super K, ? extends V> function, long maximumSize) {
+        this(function, maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 获取key的计算结果，没有缓存时计算，有其他线程正在计算时等待它的结果
+     *
+     * @param key
+     * @return
+     * @throws InterruptedException 等待时被中断
+     * @throws ExecutionException   计算抛出异常(该结果不会被缓存)
+     */
+    public V compute(K key) throws InterruptedException, ExecutionException {
+        while (true) {
+            Entry<K, V> entry = cache.get(key);
+            if (entry != null && entry.isExpired(expireAfterWriteNanos)) {
+                removeEntry(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                Entry<K, V> created = new Entry<>(key, sequence.incrementAndGet(), function);
+                entry = cache.putIfAbsent(key, created);
+                if (entry == null) {
+                    // 第一个线程，在当前线程中执行计算
+                    entry = created;
+                    insertionOrder.put(created.sequence, created);
+                    if (cache.get(key) != created) {
+                        // 放入顺序之前已经被其他线程删除(例如invalidate)，不留下无效的条目
+                        insertionOrder.remove(created.sequence, created);
+                    }
+                    evictIfNeeded();
+                    computations.increment();
+                    created.task.run();
+                } else {
+                    countLookup(entry);
+                }
+            } else {
+                countLookup(entry);
+            }
+            try {
+                return entry.task.get();
+            } catch (CancellationException e) {
+                // 被取消，删除后重试
+                removeEntry(entry);
+            } catch (ExecutionException e) {
+                // 计算失败不缓存
+                if (removeEntry(entry)) {
+                    failures.increment();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 取消key正在进行的计算(已完成的不受影响)，等待它的线程会重新计算
+     */
+    public boolean cancel(K key) {
+        Entry<K, V> entry = cache.get(key);
+        return entry != null && entry.task.cancel(false);
+    }
+
+    public void invalidate(K key) {
+        Entry<K, V> entry = cache.remove(key);
+        if (entry != null) {
+            insertionOrder.remove(entry.sequence, entry);
+        }
+    }
+
+    /**
+     * 删除所有已经过期的条目
+     */
+    public void cleanUp() {
+        for (Entry<K, V> entry : insertionOrder.values()) {
+            if (entry.isExpired(expireAfterWriteNanos)) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * 放入顺序中记录的条目数，与 size() 一致(放入的瞬间除外)
+     */
+    int insertionOrderSize() {
+        return insertionOrder.size();
+    }
+
+    /**
+     * 实际执行计算的次数
+     */
+    public long getComputationCount() {
+        return computations.sum();
+    }
+
+    /**
+     * 直接拿到已完成结果的次数
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 等待其他线程正在进行的计算的次数(省掉的重复计算)
+     */
+    public long getJoinedCount() {
+        return joined.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    private void countLookup(Entry<K, V> entry) {
+        if (entry.task.isDone()) {
+            hits.increment();
+        } else {
+            joined.increment();
+        }
+    }
+
+    /**
+     * 从缓存和放入顺序中删除entry(只删除这一个条目，key已经对应新条目时不删除)
+     *
+     * @return 是否由这次调用删除
+     */
+    private boolean removeEntry(Entry<K, V> entry) {
+        if (cache.remove(entry.key, entry)) {
+            insertionOrder.remove(entry.sequence, entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 放入新条目之后调用
+     * (1)从最早的一端清理过期的条目，遇到第一个已完成且没过期的条目就停止(之后的条目大多更晚完成)
+     * (2)超过容量时按放入顺序淘汰
+     */
+    private void evictIfNeeded() {
+        if (expireAfterWriteNanos != Long.MAX_VALUE) {
+            Iterator<Entry<K, V>> it = insertionOrder.values().iterator();
+            while (it.hasNext()) {
+                Entry<K, V> entry = it.next();
+                if (entry.isExpired(expireAfterWriteNanos)) {
+                    removeEntry(entry);
+                } else if (entry.completedNanos != 0) {
+                    break;
+                }
+            }
+        }
+        while (cache.size() > maximumSize) {
+            Map.Entry<Long, Entry<K, V>> eldest = insertionOrder.pollFirstEntry();
+            if (eldest == null) {
+                return;
+            }
+            cache.remove(eldest.getValue().key, eldest.getValue());
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final K key;
+        // 放入顺序
+        final long sequence;
+        final FutureTask<V> task;
+        // 计算完成的时间，0表示还没完成
+        volatile long completedNanos;
+
+        Entry(K key, long sequence, Function<? super K, ? extends V> function) {
+            this.key = key;
+            this.sequence = sequence;
+            this.task = new FutureTask<V>(() -> function.apply(key)) {
+                @Override
+                protected void done() {
+                    long now = System.nanoTime();
+                    completedNanos = now == 0 ? 1 : now;
+                }
+            };
+        }
+
+        boolean isExpired(long expireAfterWriteNanos) {
+            long completed = completedNanos;
+            return expireAfterWriteNanos != Long.MAX_VALUE && completed != 0
+                    && System.nanoTime() - completed >= expireAfterWriteNanos;
+        }
+    }
+}
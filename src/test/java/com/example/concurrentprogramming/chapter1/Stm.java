@@ -0,0 +1,222 @@
+package com.example.concurrentprogramming.chapter1;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * TL2 风格的软件事务内存
+ * Chapter1 中 waitAndDeadLock、deadLockCondition 同时更新 resourceA、resourceB 保护的状态，获取锁的顺序不一致就会死锁
+ * <p>
+ * (1)全局版本时钟: 事务开始时读取为读版本rv，提交时加1得到写版本wv
+ * (2)事务引用Ref: 值 + 版本锁(版本号<<1 | 锁标志位)
+ * (3)读: 不加锁，读值前后版本锁不变、未加锁、版本号<=rv 才有效，否则中止重试 ---> 只读事务从不阻塞
+ * (4)写: 先写到事务私有的写集，提交时才可见
+ * (5)提交: 按Ref的创建序号顺序对写集加锁(拿不到锁直接中止，不等待) -> 取wv -> 校验读集 -> 写回值并以wv解锁
+ * ---> 不会持有锁等待其他锁，不会死锁；冲突时中止并随机退避之后重试
+ * <p>
+ * Java中无法取得对象地址，这里用Ref创建时分配的递增序号代替地址排序
+ *
+ * @author CZS
+ * @create 2026-10-20 01:40
+ **/
+public final class Stm {
+    private static final AtomicLong CLOCK = new AtomicLong();
+    private static final AtomicLong REF_IDS = new AtomicLong();
+    private static final ThreadLocal<Transaction> CURRENT = new ThreadLocal<>();
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final LongAdder COMMITS = new LongAdder();
+    private static final LongAdder ABORTS = new LongAdder();
+
+    private Stm() {
+    }
+
+    /**
+     * 以事务方式执行body，冲突时自动退避重试，直到提交成功
+     * body可能执行多次，不能有事务之外的副作用；在事务中再调用atomic会合并到外层事务
+     *
+     * @param body
+     * @param <T>
+     * @return body的返回值
+     */
+    public static <T> T atomic(Function<Transaction, T> body) {
+        Transaction outer = CURRENT.get();
+        if (outer != null) {
+            return body.apply(outer);
+        }
+        long backoff = MIN_BACKOFF_NANOS;
+        while (true) {
+            Transaction tx = new Transaction(CLOCK.get());
+            CURRENT.set(tx);
+            try {
+                T result = body.apply(tx);
+                if (tx.commit()) {
+                    COMMITS.increment();
+                    return result;
+                }
+            } catch (ConflictException e) {
+                // 读到不一致的值，中止重试
+            } finally {
+                CURRENT.remove();
+            }
+            ABORTS.increment();
+            // 随机退避，避免冲突的事务同时重试再次冲突
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(backoff) + 1);
+            backoff = Math.min(backoff << 1, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    public static long getCommitCount() {
+        return COMMITS.sum();
+    }
+
+    public static long getAbortCount() {
+        return ABORTS.sum();
+    }
+
+    /**
+     * 事务引用
+     *
+     * @param <T>
+     */
+    public static final class Ref<T> {
+        private final long id = REF_IDS.incrementAndGet();
+        // 版本号<<1 | 锁标志位
+        private final AtomicLong versionedLock = new AtomicLong();
+        private volatile T value;
+
+        public Ref(T initial) {
+            this.value = initial;
+        }
+
+        public T get(Transaction tx) {
+            return tx.read(this);
+        }
+
+        public void set(Transaction tx, T newValue) {
+            tx.write(this, newValue);
+        }
+
+        /**
+         * 事务之外读取最近提交的值
+         */
+        public T peek() {
+            return value;
+        }
+    }
+
+    /**
+     * 一次事务尝试，只由执行它的线程使用
+     */
+    public static final class Transaction {
+        private final long readVersion;
+        private final List<Ref<?>> readSet = new ArrayList<>();
+        private final Map<Ref<?>, Object> writeSet = new IdentityHashMap<>();
+
+        Transaction(long readVersion) {
+            this.readVersion = readVersion;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T read(Ref<T> ref) {
+            // 读自己写过的值
+            if (!writeSet.isEmpty() && writeSet.containsKey(ref)) {
+                return (T) writeSet.get(ref);
+            }
+            long before = ref.versionedLock.get();
+            T value = ref.value;
+            long after = ref.versionedLock.get();
+            if (isLocked(before) || before != after || version(before) > readVersion) {
+                // 正在被提交 或者 在本事务开始之后被修改过
+                throw ConflictException.INSTANCE;
+            }
+            readSet.add(ref);
+            return value;
+        }
+
+        <T> void write(Ref<T> ref, T value) {
+            writeSet.put(ref, value);
+        }
+
+        /**
+         * @return false表示冲突，需要重试
+         */
+        @SuppressWarnings("unchecked")
+        boolean commit() {
+            if (writeSet.isEmpty()) {
+                // 只读事务: 每次读都已经校验过版本号<=rv，读到的是rv时刻的一致快照
+                return true;
+            }
+            List<Ref<?>> locked = new ArrayList<>(writeSet.keySet());
+            locked.sort(Comparator.comparingLong(ref -> ref.id));
+            // (1)按顺序加锁，拿不到锁不等待，直接中止
+            int acquired = 0;
+            for (Ref<?> ref : locked) {
+                long current = ref.versionedLock.get();
+                if (isLocked(current) || !ref.versionedLock.compareAndSet(current, current | 1)) {
+                    unlock(locked, acquired);
+                    return false;
+                }
+                acquired++;
+            }
+            // (2)写版本
+            long writeVersion = CLOCK.incrementAndGet();
+            // (3)校验读集，如果中间没有其他事务提交(wv == rv + 1)，读集不可能被修改
+            if (writeVersion != readVersion + 1) {
+                for (Ref<?> ref : readSet) {
+                    long current = ref.versionedLock.get();
+                    boolean lockedByOther = isLocked(current) && !writeSet.containsKey(ref);
+                    if (lockedByOther || version(current) > readVersion) {
+                        unlock(locked, acquired);
+                        return false;
+                    }
+                }
+            }
+            // (4)写回并以新版本号解锁
+            for (Ref<?> ref : locked) {
+                ((Ref<Object>) ref).value = writeSet.get(ref);
+                ref.versionedLock.set(writeVersion << 1);
+            }
+            return true;
+        }
+
+        private static void unlock(List<Ref<?>> locked, int count) {
+            for (int i = 0; i < count; i++) {
+                AtomicLong lock = locked.get(i).versionedLock;
+                lock.set(lock.get() & ~1L);
+            }
+        }
+
+        private static boolean isLocked(long versionedLock) {
+            return (versionedLock & 1) != 0;
+        }
+
+        private static long version(long versionedLock) {
+            return versionedLock >>> 1;
+        }
+    }
+
+    /**
+     * 读到不一致的值时中止事务，不需要栈信息
+     */
+    private static final class ConflictException extends RuntimeException {
+        private static final long serialVersionUID = -4156729283907445217L;
+
+        static final ConflictException INSTANCE = new ConflictException();
+
+        private ConflictException() {
+            super("transaction conflict", null, false, false);
+        }
+    }
+}
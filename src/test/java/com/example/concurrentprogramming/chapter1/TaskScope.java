@@ -0,0 +1,356 @@
+package com.example.concurrentprogramming.chapter1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 结构化并发的任务作用域
+ * Chapter1 中 createThread 各自启动线程，join 逐个等待，一个下游调用失败之后其他线程仍然继续执行，白白消耗资源
+ * <p>
+ * (1)fork: 每个Callable在一个新线程中执行，返回Subtask
+ * (2)join: 等待所有子任务结束，或者作用域的策略已经有了结论，或者截止时间到了
+ * (3)策略 ALL_SUCCESSFUL: 任意一个子任务失败 ---> 立即中断其他子任务
+ *    策略 ANY_SUCCESSFUL: 任意一个子任务成功 ---> 立即中断其他子任务
+ * (4)截止时间传递给子任务: 子任务中 TaskScope.remainingNanos() 返回剩余时间，在子任务中创建的作用域不会晚于父作用域的截止时间
+ * (5)close: 中断仍在运行的子任务并等待它们结束，子任务不会比作用域活得更久
+ * <p>
+ * 使用方式:
+ * try (TaskScope<String> scope = new TaskScope<>(Policy.ALL_SUCCESSFUL, 100, TimeUnit.MILLISECONDS)) {
+ *     Subtask<String> a = scope.fork(callA);
+ *     Subtask<String> b = scope.fork(callB);
+ *     scope.join();
+ *     List<String> results = scope.results();
+ * }
+ *
+ * @author CZS
+ * @create 2026-10-20 02:30
+ **/
+public class TaskScope<T> implements AutoCloseable {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+    private static final AtomicInteger SCOPE_IDS = new AtomicInteger();
+
+    /**
+     * 作用域在什么时候有结论
+     */
+    public enum Policy {
+        /**
+         * 需要所有子任务成功，任意一个失败就取消其他子任务
+         */
+        ALL_SUCCESSFUL,
+        /**
+         * 只需要一个子任务成功，第一个成功就取消其他子任务
+         */
+        ANY_SUCCESSFUL
+    }
+
+    private final Policy policy;
+    // System.nanoTime()的截止时间，Long.MAX_VALUE 表示没有截止时间
+    private final long deadline;
+    private final Thread owner = Thread.currentThread();
+    private final String name = "task-scope-" + SCOPE_IDS.incrementAndGet();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // 以下字段只在持有lock时访问
+    private final List<Subtask<T>> subtasks = new ArrayList<>();
+    private int running;
+    private boolean shutdown;
+    private boolean closed;
+    private Subtask<T> firstFailure;
+    private Subtask<T> firstSuccess;
+    private int cancelled;
+
+    public TaskScope(Policy policy) {
+        this(policy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param policy  策略
+     * @param timeout 截止时间(从现在开始)，会与当前线程所在作用域的截止时间取较早的那个
+     * @param unit
+     */
+    public TaskScope(Policy policy, long timeout, TimeUnit unit) {
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        this.policy = policy;
+        long now = System.nanoTime();
+        long nanos = unit.toNanos(timeout);
+        long own = now + nanos;
+        // timeout很大(例如 1_000_000 天，toNanos饱和为Long.MAX_VALUE)时加法溢出，饱和为没有截止时间
+        if (timeout == Long.MAX_VALUE || (nanos > 0 && own < now)) {
+            own = Long.MAX_VALUE;
+        }
+        Long inherited = DEADLINE.get();
+        this.deadline = inherited == null ? own : earlier(own, inherited);
+    }
+
+    /**
+     * 当前线程所在作用域剩余的时间，不在任何有截止时间的作用域中时返回 Long.MAX_VALUE
+     * 子任务调用下游时可以用它作为超时时间
+     */
+    public static long remainingNanos() {
+        Long deadline = DEADLINE.get();
+        return deadline == null || deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * 在新线程中执行task
+     */
+    public Subtask<T> fork(Callable<? extends T> task) {
+        checkOwner();
+        Subtask<T> subtask = new Subtask<>(task);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("scope is closed");
+            }
+            if (shutdown) {
+                // 已经有结论，不再启动
+                subtask.state = Subtask.State.CANCELLED;
+                cancelled++;
+                return subtask;
+            }
+            subtasks.add(subtask);
+            running++;
+            Thread thread = new Thread(() -> run(subtask), name + "-" + subtasks.size());
+            thread.setDaemon(true);
+            subtask.thread = thread;
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+        return subtask;
+    }
+
+    /**
+     * 等待所有子任务结束 或者 策略已经有结论
+     *
+     * @throws InterruptedException 当前线程被中断(作用域随之关闭)
+     * @throws TimeoutException     截止时间到了(其他子任务已被中断)
+     */
+    public TaskScope<T> join() throws InterruptedException, TimeoutException {
+        checkOwner();
+        lock.lock();
+        try {
+            while (running > 0 && !shutdown) {
+                if (deadline == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        shutdownLocked();
+                        throw new TimeoutException(name + " deadline exceeded");
+                    }
+                    changed.awaitNanos(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            shutdownLocked();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * ALL_SUCCESSFUL: 所有子任务的结果(按fork顺序)
+     * ANY_SUCCESSFUL: 第一个成功的子任务的结果(只有一个元素)
+     *
+     * @throws ExecutionException ALL_SUCCESSFUL有子任务失败(第一个失败的异常)，或者ANY_SUCCESSFUL所有子任务都失败
+     */
+    public List<T> results() throws ExecutionException {
+        checkOwner();
+        lock.lock();
+        try {
+            List<T> results = new ArrayList<>();
+            if (policy == Policy.ALL_SUCCESSFUL) {
+                if (firstFailure != null) {
+                    throw new ExecutionException(firstFailure.exception);
+                }
+                for (Subtask<T> subtask : subtasks) {
+                    if (subtask.state != Subtask.State.SUCCESS) {
+                        throw new IllegalStateException("subtask not completed: " + subtask.state + ", call join() first");
+                    }
+                    results.add(subtask.result);
+                }
+                return results;
+            }
+            if (firstSuccess == null) {
+                throw new ExecutionException("no subtask succeeded", firstFailure == null ? null : firstFailure.exception);
+            }
+            results.add(firstSuccess.result);
+            return results;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 中断所有仍在运行的子任务，不再启动新的子任务
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdownLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 被中断(取消)的子任务数
+     */
+    public int getCancelledCount() {
+        lock.lock();
+        try {
+            return cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 中断仍在运行的子任务并等待它们结束
+     */
+    @Override
+    public void close() {
+        checkOwner();
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            closed = true;
+            shutdownLocked();
+            while (running > 0) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Subtask<T> subtask) {
+        DEADLINE.set(deadline);
+        T result = null;
+        Throwable failure = null;
+        try {
+            result = subtask.task.call();
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            DEADLINE.remove();
+        }
+        lock.lock();
+        try {
+            if (subtask.state == Subtask.State.CANCELLED) {
+                // 已被取消，结果丢弃
+            } else if (failure == null) {
+                subtask.result = result;
+                subtask.state = Subtask.State.SUCCESS;
+                if (firstSuccess == null) {
+                    firstSuccess = subtask;
+                }
+                if (policy == Policy.ANY_SUCCESSFUL) {
+                    shutdownLocked();
+                }
+            } else {
+                subtask.exception = failure;
+                subtask.state = Subtask.State.FAILED;
+                if (firstFailure == null) {
+                    firstFailure = subtask;
+                }
+                if (policy == Policy.ALL_SUCCESSFUL) {
+                    shutdownLocked();
+                }
+            }
+            running--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void shutdownLocked() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        for (Subtask<T> subtask : subtasks) {
+            if (subtask.state == Subtask.State.RUNNING) {
+                subtask.state = Subtask.State.CANCELLED;
+                cancelled++;
+                subtask.thread.interrupt();
+            }
+        }
+        changed.signalAll();
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("only the owner thread can use the scope");
+        }
+    }
+
+    private static long earlier(long a, long b) {
+        if (a == Long.MAX_VALUE) {
+            return b;
+        }
+        if (b == Long.MAX_VALUE) {
+            return a;
+        }
+        return a - b < 0 ? a : b;
+    }
+
+    /**
+     * fork出来的子任务，状态和结果在join之后读取
+     */
+    public static final class Subtask<T> {
+        public enum State {
+            RUNNING, SUCCESS, FAILED, CANCELLED
+        }
+
+        private final Callable<? extends T> task;
+        private Thread thread;
+        // 以下字段在作用域的lock下读写
+        private volatile State state = State.RUNNING;
+        private T result;
+        private Throwable exception;
+
+        Subtask(Callable<? extends T> task) {
+            this.task = task;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        public T get() {
+            if (state != State.SUCCESS) {
+                throw new IllegalStateException("subtask " + state);
+            }
+            return result;
+        }
+
+        public Throwable exception() {
+            if (state != State.FAILED) {
+                throw new IllegalStateException("subtask " + state);
+            }
+            return exception;
+        }
+    }
+}
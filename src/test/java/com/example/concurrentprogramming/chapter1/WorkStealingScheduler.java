@@ -0,0 +1,319 @@
+package com.example.concurrentprogramming.chapter1;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 工作窃取调度器
+ * Chapter1 中每个任务都 new Thread().start()，细粒度任务要付出创建线程的开销，并且没有负载均衡
+ * <p>
+ * (1)固定数量的工作线程，每个工作线程有自己的无锁双端队列(Chase-Lev deque)
+ * (2)工作线程中提交的任务放入自己队列的底部，自己从底部取(LIFO，缓存局部性好)
+ * (3)自己的队列空了，先取外部提交队列，再从其他工作线程队列的顶部窃取(FIFO，窃取到的通常是较大的任务)
+ * (4)所有队列都空了就 LockSupport.park 挂起，有新任务时唤醒一个挂起的工作线程
+ * <p>
+ * 提交方式与 Chapter1 一致: execute(RunnableTask)，submit(CallerTask) 返回 FutureTask
+ *
+ * @author CZS
+ * @create 2026-10-19 22:05
+ **/
+public class WorkStealingScheduler implements Executor {
+    private final Worker[] workers;
+    // 外部线程提交的任务
+    private final Queue<Runnable> submissions = new ConcurrentLinkedQueue<>();
+    // 挂起的工作线程
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private volatile boolean shutdown;
+
+    public WorkStealingScheduler(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * 提交任务: 在工作线程中提交放入自己的队列，否则放入外部提交队列
+     *
+     * @param task
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("scheduler has been shut down");
+        }
+        Thread current = Thread.currentThread();
+        if (current instanceof WorkerThread && ((WorkerThread) current).scheduler() == this) {
+            ((WorkerThread) current).worker.deque.push(task);
+        } else {
+            submissions.add(task);
+            // 入队之后再检查一次: 工作线程可能已经全部退出，撤回并拒绝(撤回失败说明已经被工作线程取走)
+            if (shutdown && submissions.remove(task)) {
+                throw new RejectedExecutionException("scheduler has been shut down");
+            }
+        }
+        signalWork();
+    }
+
+    /**
+     * 提交有返回值的任务，与Chapter1一样使用FutureTask获取结果
+     *
+     * @param task
+     * @param <T>
+     * @return
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        execute(futureTask);
+        return futureTask;
+    }
+
+    public Future<?> submit(Runnable task) {
+        FutureTask<Void> futureTask = new FutureTask<>(task, null);
+        execute(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * 不再接受新任务，已提交的任务执行完之后工作线程退出
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            worker.thread.join(remaining);
+            if (worker.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 所有工作线程一共窃取成功的次数
+     *
+     * @return
+     */
+    public long getStealCount() {
+        long steals = 0;
+        for (Worker worker : workers) {
+            steals += worker.steals;
+        }
+        return steals;
+    }
+
+    /**
+     * 有挂起的工作线程时唤醒一个
+     */
+    private void signalWork() {
+        Worker idle = idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle.thread);
+        }
+    }
+
+    /**
+     * 依次查找: 外部提交队列 -> 从随机位置开始窃取其他工作线程的队列
+     */
+    private Runnable scan(Worker self) {
+        Runnable task = submissions.poll();
+        if (task != null) {
+            return task;
+        }
+        int n = workers.length;
+        int start = ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            Worker victim = workers[(start + i) % n];
+            if (victim != self) {
+                task = victim.deque.steal();
+                if (task != null) {
+                    self.steals++;
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private final class Worker implements Runnable {
+        final WorkStealingDeque deque = new WorkStealingDeque();
+        final WorkerThread thread;
+        // 只由自己写，统计时读到稍旧的值没有关系
+        volatile long steals;
+
+        Worker(int index) {
+            this.thread = new WorkerThread(this, "work-stealing-worker-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                // (1)自己的队列，LIFO
+                Runnable task = deque.pop();
+                // (2)外部提交队列 + 窃取，FIFO
+                if (task == null) {
+                    task = scan(this);
+                }
+                if (task == null) {
+                    // (3)先登记为空闲，再检查一遍，避免在检查和挂起之间提交的任务无人执行
+                    idleWorkers.add(this);
+                    task = scan(this);
+                    if (task == null && shutdown) {
+                        // 看到shutdown之后再扫描一遍再退出: 与execute中入队之后再检查shutdown配合，
+                        // 提交者没看到shutdown时，它的任务一定在这次扫描之前入队
+                        task = scan(this);
+                        if (task == null) {
+                            idleWorkers.remove(this);
+                            return;
+                        }
+                    }
+                    if (task == null) {
+                        LockSupport.park(this);
+                        idleWorkers.remove(this);
+                        continue;
+                    }
+                    idleWorkers.remove(this);
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // 任务的异常不影响工作线程，与线程池一样交给未捕获异常处理器
+                    Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+                    handler.uncaughtException(thread, t);
+                }
+            }
+        }
+    }
+
+    private final class WorkerThread extends Thread {
+        final Worker worker;
+
+        WorkerThread(Worker worker, String name) {
+            super(worker, name);
+            this.worker = worker;
+        }
+
+        WorkStealingScheduler scheduler() {
+            return WorkStealingScheduler.this;
+        }
+    }
+
+    /**
+     * Chase-Lev 工作窃取双端队列
+     * 只有所属工作线程调用 push/pop(操作bottom)，其他线程调用 steal(CAS top)
+     * 只剩最后一个任务时，pop 也要CAS top 与窃取者竞争
+     */
+    static final class WorkStealingDeque {
+        private static final int INITIAL_CAPACITY = 1 << 8;
+
+        private final AtomicLong top = new AtomicLong();
+        private volatile long bottom;
+        private volatile AtomicReferenceArray<Runnable> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+        /**
+         * 所属线程放入底部
+         */
+        void push(Runnable task) {
+            long b = bottom;
+            long t = top.get();
+            AtomicReferenceArray<Runnable> a = array;
+            if (b - t >= a.length() - 1) {
+                a = grow(a, t, b);
+            }
+            a.set((int) (b & (a.length() - 1)), task);
+            // volatile写，发布任务
+            bottom = b + 1;
+        }
+
+        /**
+         * 所属线程从底部取出(LIFO)
+         */
+        Runnable pop() {
+            long b = bottom - 1;
+            AtomicReferenceArray<Runnable> a = array;
+            // volatile写bottom之后再volatile读top，与steal中的读写形成顺序一致
+            bottom = b;
+            long t = top.get();
+            if (t > b) {
+                // 空队列
+                bottom = b + 1;
+                return null;
+            }
+            int index = (int) (b & (a.length() - 1));
+            Runnable task = a.get(index);
+            if (t == b) {
+                // 只剩最后一个任务，与窃取者竞争
+                if (!top.compareAndSet(t, t + 1)) {
+                    task = null;
+                } else {
+                    a.compareAndSet(index, task, null);
+                }
+                bottom = b + 1;
+                return task;
+            }
+            a.set(index, null);
+            return task;
+        }
+
+        /**
+         * 其他线程从顶部窃取(FIFO)
+         */
+        Runnable steal() {
+            long t = top.get();
+            long b = bottom;
+            if (t >= b) {
+                return null;
+            }
+            AtomicReferenceArray<Runnable> a = array;
+            int index = (int) (t & (a.length() - 1));
+            Runnable task = a.get(index);
+            if (task == null || !top.compareAndSet(t, t + 1)) {
+                // 被其他线程抢先了
+                return null;
+            }
+            a.compareAndSet(index, task, null);
+            return task;
+        }
+
+        private AtomicReferenceArray<Runnable> grow(AtomicReferenceArray<Runnable> old, long t, long b) {
+            int oldMask = old.length() - 1;
+            AtomicReferenceArray<Runnable> bigger = new AtomicReferenceArray<>(old.length() << 1);
+            int newMask = bigger.length() - 1;
+            for (long i = t; i < b; i++) {
+                bigger.set((int) (i & newMask), old.get((int) (i & oldMask)));
+            }
+            array = bigger;
+            return bigger;
+        }
+    }
+}
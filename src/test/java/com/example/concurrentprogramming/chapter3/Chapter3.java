@@ -4,8 +4,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 /**
  * @author CZS
  * @create 2022-11-19 23:23
@@ -31,4 +34,48 @@ public class Chapter3 {
             System.out.println(random.nextInt(5));
         }
     }
+
+    /**
+     * 单次试验: 在单位正方形内随机取一个点，落在四分之一圆内返回4，否则返回0，均值即为π
+     */
+    private static final MonteCarloEngine.Sampler PI_SAMPLER = random -> {
+        double x = random.nextDouble();
+        double y = random.nextDouble();
+        return x * x + y * y <= 1.0 ? 4.0 : 0.0;
+    };
+
+    /**
+     * 并行蒙特卡洛: 相同种子结果可复现、提前停止、不同并行度下的耗时
+     */
+    @Test
+    void MonteCarloTest() {
+        final long TRIALS = 20_000_000L;
+
+        //①相同种子，不同并行度，结果完全相同
+        MonteCarloEngine.Stats sequential = null;
+        for (int parallelism : new int[]{1, 2, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                MonteCarloEngine engine = new MonteCarloEngine(pool, 42L);
+                long start = System.nanoTime();
+                MonteCarloEngine.Stats stats = engine.run(TRIALS, PI_SAMPLER);
+                long cost = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("parallelism " + parallelism + ": " + stats + ", cost " + cost + "ms");
+                if (sequential == null) {
+                    sequential = stats;
+                } else {
+                    assertEquals(sequential.getCount(), stats.getCount());
+                    assertEquals(sequential.getMean(), stats.getMean());
+                    assertEquals(sequential.getVariance(), stats.getVariance());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        //②提前停止: 95%置信区间半宽达到0.001即停止
+        MonteCarloEngine engine = new MonteCarloEngine(ForkJoinPool.commonPool(), 42L);
+        MonteCarloEngine.Stats stats = engine.runUntil(0.001, 1.96, 1_000_000L, TRIALS * 10, PI_SAMPLER);
+        System.out.println("early stop: " + stats + ", 95% CI +-" + stats.halfWidth(1.96));
+    }
 }
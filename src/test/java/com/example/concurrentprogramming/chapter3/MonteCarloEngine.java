@@ -0,0 +1,198 @@
+package com.example.concurrentprogramming.chapter3;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 基于fork/join的并行蒙特卡洛执行引擎
+ * <p>
+ * (1)把N次试验按固定大小切成若干块(chunk)，在ForkJoinPool中递归二分，每个叶子任务执行一块
+ * (2)每一块使用自己独立的随机数生成器，种子由 主种子 + 块编号 计算得到
+ * ---> 与 ThreadLocalRandom 一样每个任务各用各的生成器，不存在多线程竞争同一个种子的问题
+ * ---> 但 ThreadLocalRandom 不能指定种子，这里使用同样为fork/join设计的 SplittableRandom，保证结果与线程调度无关、可复现
+ * (3)每个叶子任务用自己的累加器(Stats)统计，父任务合并子任务的累加器，不需要任何共享变量
+ * (4)支持提前停止: 按轮执行，每轮结束后检查置信区间半宽是否已经达到要求
+ *
+ * @author CZS
+ * @create 2026-10-19 17:02
+ **/
+public class MonteCarloEngine {
+    // 每块的试验次数，也是叶子任务的粒度
+    private static final int CHUNK_TRIALS = 1 << 14;
+
+    private final ForkJoinPool pool;
+    private final long seed;
+
+    public MonteCarloEngine(ForkJoinPool pool, long seed) {
+        this.pool = pool;
+        this.seed = seed;
+    }
+
+    /**
+     * 单次试验，返回这次试验的观测值
+     */
+    @FunctionalInterface
+    public interface Sampler {
+        double sample(SplittableRandom random);
+    }
+
+    /**
+     * 执行固定次数的试验
+     *
+     * @param trials
+     * @param sampler
+     * @return
+     */
+    public Stats run(long trials, Sampler sampler) {
+        long chunks = (trials + CHUNK_TRIALS - 1) / CHUNK_TRIALS;
+        return pool.invoke(new ChunkTask(sampler, 0, chunks, trials));
+    }
+
+    /**
+     * 按轮执行试验，直到 z * 标准误差 <= halfWidth 或者达到 maxTrials
+     *
+     * @param halfWidth   目标置信区间半宽
+     * @param z           置信水平对应的z值，比如95%为1.96
+     * @param roundTrials 每轮试验次数
+     * @param maxTrials   最多试验次数
+     * @param sampler
+     * @return
+     */
+    public Stats runUntil(double halfWidth, double z, long roundTrials, long maxTrials, Sampler sampler) {
+        long roundChunks = Math.max(1, roundTrials / CHUNK_TRIALS);
+        long maxChunks = (maxTrials + CHUNK_TRIALS - 1) / CHUNK_TRIALS;
+        Stats total = new Stats();
+        long nextChunk = 0;
+        while (nextChunk < maxChunks) {
+            long toChunk = Math.min(nextChunk + roundChunks, maxChunks);
+            // 块编号在轮与轮之间连续，保证每块的种子都不同且可复现
+            total.merge(pool.invoke(new ChunkTask(sampler, nextChunk, toChunk, maxTrials)));
+            nextChunk = toChunk;
+            if (total.getCount() > 1 && total.halfWidth(z) <= halfWidth) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 执行 [fromChunk, toChunk) 范围内的块，trials为总试验次数(用来截断最后一块)
+     */
+    private final class ChunkTask extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 3825140761652078915L;
+
+        private final Sampler sampler;
+        private final long fromChunk;
+        private final long toChunk;
+        private final long trials;
+
+        ChunkTask(Sampler sampler, long fromChunk, long toChunk, long trials) {
+            this.sampler = sampler;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+            this.trials = trials;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (toChunk - fromChunk <= 1) {
+                return fromChunk < toChunk ? runChunk(fromChunk) : new Stats();
+            }
+            long mid = (fromChunk + toChunk) >>> 1;
+            ChunkTask left = new ChunkTask(sampler, fromChunk, mid, trials);
+            ChunkTask right = new ChunkTask(sampler, mid, toChunk, trials);
+            left.fork();
+            Stats stats = right.compute();
+            stats.merge(left.join());
+            return stats;
+        }
+
+        private Stats runChunk(long chunk) {
+            SplittableRandom random = new SplittableRandom(mix(seed, chunk));
+            long start = chunk * CHUNK_TRIALS;
+            long end = Math.min(start + CHUNK_TRIALS, trials);
+            Stats stats = new Stats();
+            for (long i = start; i < end; i++) {
+                stats.add(sampler.sample(random));
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * 由主种子和块编号计算块的种子(SplitMix64的混合函数)
+     */
+    private static long mix(long seed, long chunk) {
+        long z = seed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 累加器: 在线计算均值和方差(Welford算法)，两个累加器可以合并(Chan的并行合并公式)
+     * 不是线程安全的，每个任务只使用自己的累加器
+     */
+    public static final class Stats {
+        private long count;
+        private double mean;
+        // 与均值之差的平方和
+        private double m2;
+
+        public void add(double value) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        public void merge(Stats other) {
+            if (other.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                count = other.count;
+                mean = other.mean;
+                m2 = other.m2;
+                return;
+            }
+            long n = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+            count = n;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getVariance() {
+            return count > 1 ? m2 / (count - 1) : 0.0;
+        }
+
+        public double getStandardError() {
+            return count > 0 ? Math.sqrt(getVariance() / count) : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * 置信区间半宽
+         *
+         * @param z 置信水平对应的z值
+         * @return
+         */
+        public double halfWidth(double z) {
+            return z * getStandardError();
+        }
+
+        @Override
+        public String toString() {
+            return "count " + count + ", mean " + mean + ", stdErr " + getStandardError();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.concurrentprogramming.chapter4;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -47,4 +48,47 @@ public class Chapter4 {
         System.out.println("普通计数器(需要加同步措施)" + "\t" + "count 0: " + count);
         System.out.println("原子计数器(不需要加同步措施)" + "\t" + "count 0: " + atomicLong.get());
     }
+
+
+    /**
+     * 并发直方图: 4个线程并发记录 [1000, 1000000) 之间均匀分布的数值，主线程同时定期取区间快照
+     * 均匀分布下 p50 约为 500000，p99 约为 990000，误差不超过 1/64
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void concurrentHistogramTest() throws InterruptedException {
+        ConcurrentHistogram histogram = new ConcurrentHistogram(4);
+        final int RECORDS_PER_THREAD = 1_000_000;
+
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    histogram.record(random.nextLong(1_000, 1_000_000));
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        // 写线程运行期间取区间快照，不会阻塞写线程
+        boolean running = true;
+        while (running) {
+            Thread.sleep(20);
+            System.out.println("interval: " + histogram.intervalSnapshot());
+            running = false;
+            for (Thread writer : writers) {
+                running |= writer.isAlive();
+            }
+        }
+        long cost = System.nanoTime() - start;
+        System.out.println("interval: " + histogram.intervalSnapshot());
+
+        ConcurrentHistogram.Snapshot total = histogram.snapshot();
+        System.out.println("total: " + total + ", mean " + (long) total.getMean());
+        System.out.println("record throughput: " + (writers.length * (long) RECORDS_PER_THREAD * 1_000_000_000L / cost) + " ops/s");
+    }
 }
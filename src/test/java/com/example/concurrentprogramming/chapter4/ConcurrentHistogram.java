@@ -0,0 +1,229 @@
+package com.example.concurrentprogramming.chapter4;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 并发直方图(用于记录延迟分布)，基于原子计数器
+ * Chapter4 中用 AtomicLong 计数，这里把一个计数器扩展成一组按数值区间划分的计数器(桶)
+ * <p>
+ * 桶的划分是 对数-线性 的: 0~63 每个数一个桶，之后每个2的幂区间 [2^k, 2^(k+1)) 平均分成64个桶
+ * ---> 任意数值的相对误差不超过 1/64，覆盖 0 ~ Long.MAX_VALUE 只需要固定的 3712 个桶
+ * <p>
+ * (1)记录: 计算桶下标 + 一次 getAndIncrement，无锁、无等待、不分配对象
+ * (2)分段: 每个CPU一组桶，线程按线程id散列到不同的分段上，减少对同一个计数器的竞争
+ * (3)快照: 读取所有计数器求和，不阻塞写线程；区间快照 = 本次累计值 - 上次累计值
+ *
+ * @author chenzhisheng
+ * @date 2026/10/19 16:10
+ **/
+public class ConcurrentHistogram {
+    // 每个2的幂区间划分的桶数 = 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 桶总数: 最大的数 2^63-1 的 floor(log2) 为62，对应下标 (62 - 6 + 1) * 64 + 63
+    static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    // 上一次区间快照时的累计值，只有快照线程访问
+    private long[] lastCumulative = new long[BUCKET_COUNT];
+
+    public ConcurrentHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency 预计的并发写线程数，分段数取不小于它的2的幂
+     */
+    public ConcurrentHistogram(int concurrency) {
+        int stripeCount = 1;
+        while (stripeCount < concurrency) {
+            stripeCount <<= 1;
+        }
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * 记录一个数值(比如纳秒延迟)
+     *
+     * @param value 非负数
+     */
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must be non-negative: " + value);
+        }
+        stripes[stripeIndex()].getAndIncrement(bucketIndex(value));
+    }
+
+    /**
+     * 从创建以来的累计快照
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(cumulative());
+    }
+
+    /**
+     * 从上一次调用本方法以来的区间快照，写线程不需要停下来
+     * 快照期间写入的数值，要么算在这一次，要么算在下一次，不会丢失
+     *
+     * @return
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        long[] current = cumulative();
+        long[] interval = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            interval[i] = current[i] - lastCumulative[i];
+        }
+        lastCumulative = current;
+        return new Snapshot(interval);
+    }
+
+    private long[] cumulative() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        // 混合高低位，避免连续的线程id落在相邻的分段上
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    /**
+     * 数值 -> 桶下标
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // value的最高位是第exponent位，右移shift位之后落在 [64, 128)
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * 桶下标 -> 该桶能表示的最小数值
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return subBucket << shift;
+    }
+
+    /**
+     * 桶下标 -> 该桶能表示的最大数值
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * 某一时刻(或某一区间)的直方图快照，不可变
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * 百分位数，返回对应桶的最大值(偏保守)
+         *
+         * @param percentile 0~100，比如99.9
+         * @return 没有数据时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double p = Math.min(Math.max(percentile, 0.0), 100.0);
+            long target = Math.max(1, (long) Math.ceil(p / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValue(i);
+                }
+            }
+            return getMax();
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return lowestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 平均值，每个桶按中间值计算
+         *
+         * @return
+         */
+        public double getMean() {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    sum += counts[i] * ((lowestValue(i) + highestValue(i)) / 2.0);
+                }
+            }
+            return sum / totalCount;
+        }
+
+        @Override
+        public String toString() {
+            return "count " + totalCount
+                    + ", p50 " + getValueAtPercentile(50)
+                    + ", p99 " + getValueAtPercentile(99)
+                    + ", p99.9 " + getValueAtPercentile(99.9)
+                    + ", max " + getMax();
+        }
+    }
+}
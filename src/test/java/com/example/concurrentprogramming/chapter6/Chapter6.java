@@ -1,15 +1,73 @@
 package com.example.concurrentprogramming.chapter6;
 
+import com.example.concurrentprogramming.chapter4.ConcurrentHistogram;
+import com.example.concurrentprogramming.limiter.AdmissionControlFilter;
+import com.example.concurrentprogramming.limiter.Bulkhead;
+import com.example.concurrentprogramming.limiter.TokenBucketRateLimiter;
+import com.example.concurrentprogramming.log.AsyncLogger;
+import com.example.concurrentprogramming.pipeline.StagedPipeline;
+import com.example.concurrentprogramming.timer.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author chenzhisheng
@@ -17,6 +75,19 @@ import java.util.concurrent.locks.ReentrantLock;
  **/
 @SpringBootTest
 public class Chapter6 {
+    /**
+     * 加锁、条件变量、park 的演示中使用异步日志，System.out.println 本身是synchronized的，会改变线程的交错顺序
+     */
+    private static final AsyncLogger LOG = AsyncLogger.console();
+
+    /**
+     * 每个测试结束时写出剩余日志
+     */
+    @AfterEach
+    void flushLog() {
+        LOG.flush();
+    }
+
     /**
      * 默认情况下调用LockSupport类的方法的线程是不持有与LockSupport类关联的许可证的
      * <p>
@@ -28,14 +99,14 @@ public class Chapter6 {
     @Test
     void parkTest() throws InterruptedException {
         Thread childThread = new Thread(() -> {
-            System.out.println("childThread begin park!");
+            LOG.log("childThread begin park!");
 
             LockSupport.park();
 
-            System.out.println("childThread end park!");
+            LOG.log("childThread end park!");
         });
 
-        System.out.println("mainThread begin!");
+        LOG.log("mainThread begin!");
 
         childThread.start();
         Thread.sleep(2000);
@@ -44,7 +115,7 @@ public class Chapter6 {
         childThread.interrupt();
         childThread.join();
 
-        System.out.println("mainThread end!");
+        LOG.log("mainThread end!");
     }
 
     /**
@@ -59,7 +130,7 @@ public class Chapter6 {
     @Test
     void parkAndUnparkTest() throws InterruptedException {
         Thread childThread = new Thread(() -> {
-            System.out.println("childThread begin park!");
+            LOG.log("childThread begin park!");
 
             //调用park方法，阻塞自己
             LockSupport.park();
@@ -69,14 +140,14 @@ public class Chapter6 {
 //                LockSupport.park();
 //            }
 
-            System.out.println("childThread unpark!");
+            LOG.log("childThread unpark!");
         });
 
         childThread.start();
         //让子线程先阻塞
         Thread.sleep(2000);
 
-        System.out.println("mainThread begin unpark!");
+        LOG.log("mainThread begin unpark!");
         //调用unpark方法让 childThread子线程 持有许可证，之后子线程就会从调用的park方法中返回了
         LockSupport.unpark(childThread);
 //        childThread.interrupt();
@@ -143,9 +214,9 @@ public class Chapter6 {
         Thread threadA = new Thread(() -> {
             lock.lock();
             try {
-                System.out.println("begin wait");
+                LOG.log("begin wait");
                 condition.await();
-                System.out.println("end wait");
+                LOG.log("end wait");
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
@@ -156,9 +227,9 @@ public class Chapter6 {
         Thread threadB = new Thread(() -> {
             lock.lock();
             try {
-                System.out.println("begin signal");
+                LOG.log("begin signal");
                 condition.signal();
-                System.out.println("end signal");
+                LOG.log("end signal");
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
@@ -195,16 +266,16 @@ public class Chapter6 {
                 // (1)如果队列满了，则等待
                 // 使用while而不是if，是为了避免虚假唤醒
                 while (QUEUE.size() == QUEUE_SIZE) {
-                    System.out.println("QUEUE full, producer await.");
+                    LOG.log("QUEUE full, producer await.");
                     NOT_EMPTY.await();
                 }
 
                 // (2)元素入队
-                System.out.println("QUEUE not full, producer add element.");
+                LOG.log("QUEUE not full, producer add element.");
                 QUEUE.add("element");
 
                 // (3)唤醒消费线程
-                System.out.println("signalAll consumer.");
+                LOG.log("signalAll consumer.");
                 NOT_FULL.signalAll();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -221,16 +292,16 @@ public class Chapter6 {
                 // (1)如果队列空，则等待
                 // 使用while而不是if，是为了避免虚假唤醒
                 while (QUEUE.size() == 0) {
-                    System.out.println("QUEUE empty, consumer await.");
+                    LOG.log("QUEUE empty, consumer await.");
                     NOT_FULL.await();
                 }
 
                 // (2)消费一个元素
-                System.out.println("QUEUE not empty, consumer poll element.");
+                LOG.log("QUEUE not empty, consumer poll element.");
                 String element = QUEUE.poll();
 
                 // (3)唤醒生产线程
-                System.out.println("signalAll producer.");
+                LOG.log("signalAll producer.");
                 NOT_EMPTY.signalAll();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -247,4 +318,1606 @@ public class Chapter6 {
         producer.join();
         consumer.join();
     }
+
+
+    /**
+     * notifyAll 与 KeyedWaitQueue 定向唤醒 的对比
+     * WAITERS个线程各自等待自己的订单完成，主线程逐个完成订单并唤醒，每完成一个就等待对应线程结束
+     * notifyAll: 每完成一个订单，所有还在等待的线程都会醒来检查一次条件 ---> 唤醒次数与 WAITERS^2 同一量级
+     * KeyedWaitQueue: 只唤醒等待该订单的线程 ---> 唤醒次数约等于 WAITERS
+     * 两边都统计每一次从 wait()/park 返回，包括返回后条件不满足、继续等待的
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void keyedWaitQueueVsNotifyAll() throws InterruptedException {
+        final int WAITERS = 200;
+
+        // ①notifyAll
+        final Object monitor = new Object();
+        final boolean[] doneByMonitor = new boolean[WAITERS];
+        final AtomicInteger monitorWakeups = new AtomicInteger();
+        Thread[] threads = new Thread[WAITERS];
+        for (int i = 0; i < WAITERS; i++) {
+            final int order = i;
+            threads[i] = new Thread(() -> {
+                synchronized (monitor) {
+                    while (!doneByMonitor[order]) {
+                        try {
+                            monitor.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        monitorWakeups.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(500);
+        long start = System.nanoTime();
+        for (int i = 0; i < WAITERS; i++) {
+            synchronized (monitor) {
+                doneByMonitor[i] = true;
+                monitor.notifyAll();
+            }
+            // 等待该订单的线程结束后再完成下一个订单，其余线程此时都已重新wait
+            threads[i].join();
+        }
+        System.out.println("notifyAll      wakeups: " + monitorWakeups.get() + ", cost: " + (System.nanoTime() - start) / 1000 + "us");
+
+        // ②KeyedWaitQueue
+        final KeyedWaitQueue<Integer> waitQueue = new KeyedWaitQueue<>();
+        final AtomicIntegerArray doneByQueue = new AtomicIntegerArray(WAITERS);
+        for (int i = 0; i < WAITERS; i++) {
+            final int order = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    waitQueue.await(order, () -> doneByQueue.get(order) == 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(500);
+        start = System.nanoTime();
+        for (int i = 0; i < WAITERS; i++) {
+            // 先修改状态，再定向唤醒
+            doneByQueue.set(i, 1);
+            waitQueue.signalAll(i);
+            threads[i].join();
+        }
+        // 与notifyAll一样统计每一次从park返回(包括醒来后继续等待的)，而不只是await返回
+        System.out.println("KeyedWaitQueue wakeups: " + waitQueue.getWakeupCount() + ", cost: " + (System.nanoTime() - start) / 1000 + "us");
+    }
+
+
+    /**
+     * 多个线程同时执行 operations 次操作，返回总耗时(ms)
+     */
+    private static long runConcurrently(int threadCount, Runnable operations) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        CountDownLatch startSignal = new CountDownLatch(1);
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                operations.run();
+            });
+            threads[i].start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * ReentrantLockList 与 FlatCombiningList 在高并发下的add吞吐量对比
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void flatCombiningVsReentrantLock() throws InterruptedException {
+        final int OPS_PER_THREAD = 200_000;
+        for (int threadCount : new int[]{8, 16}) {
+            ReentrantLockList<Integer> lockList = new ReentrantLockList<>();
+            long lockCost = runConcurrently(threadCount, () -> {
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    lockList.add(i);
+                }
+            });
+
+            FlatCombiningList<Integer> combiningList = new FlatCombiningList<>();
+            long combiningCost = runConcurrently(threadCount, () -> {
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    combiningList.add(i);
+                }
+            });
+
+            long totalOps = (long) threadCount * OPS_PER_THREAD;
+            System.out.println(threadCount + " threads, " + totalOps + " adds: "
+                    + "ReentrantLockList " + lockCost + "ms, "
+                    + "FlatCombiningList " + combiningCost + "ms (size " + combiningList.size() + ")");
+        }
+    }
+
+
+    /**
+     * LockFreeSkipListSet的基本使用: 多线程并发添加，然后范围迭代
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void lockFreeSkipListSet() throws InterruptedException {
+        LockFreeSkipListSet<Integer> set = new LockFreeSkipListSet<>();
+        AtomicInteger next = new AtomicInteger();
+        // 4个线程并发添加 0~9999，再并发删除所有奇数
+        runConcurrently(4, () -> {
+            for (int i = next.getAndIncrement(); i < 10_000; i = next.getAndIncrement()) {
+                set.add(i);
+            }
+        });
+        next.set(0);
+        runConcurrently(4, () -> {
+            for (int i = next.getAndIncrement(); i < 10_000; i = next.getAndIncrement()) {
+                if ((i & 1) == 1) {
+                    set.remove(i);
+                }
+            }
+        });
+
+        System.out.println("size: " + set.size() + ", contains 42: " + set.contains(42) + ", contains 43: " + set.contains(43));
+        System.out.print("range [100, 120): ");
+        for (Integer e : set.range(100, 120)) {
+            System.out.print(e + " ");
+        }
+        System.out.println();
+    }
+
+    /**
+     * ReentrantLockList、Collections.synchronizedSortedSet、LockFreeSkipListSet
+     * 在不同元素个数下 随机删除再添加 的耗时对比
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void skipListVsReentrantLockList() throws InterruptedException {
+        final int THREADS = 4;
+        final int OPS_PER_THREAD = 5_000;
+        for (int size : new int[]{1_000, 10_000, 50_000}) {
+            ReentrantLockList<Integer> lockList = new ReentrantLockList<>();
+            SortedSet<Integer> syncSet = Collections.synchronizedSortedSet(new TreeSet<>());
+            LockFreeSkipListSet<Integer> skipList = new LockFreeSkipListSet<>();
+            for (int i = 0; i < size; i++) {
+                lockList.add(i);
+                syncSet.add(i);
+                skipList.add(i);
+            }
+
+            long lockListCost = runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    Integer e = random.nextInt(size);
+                    lockList.remove(e);
+                    lockList.add(e);
+                }
+            });
+            long syncSetCost = runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    Integer e = random.nextInt(size);
+                    syncSet.remove(e);
+                    syncSet.add(e);
+                }
+            });
+            long skipListCost = runConcurrently(THREADS, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    Integer e = random.nextInt(size);
+                    skipList.remove(e);
+                    skipList.add(e);
+                }
+            });
+
+            System.out.println("size " + size + ": ReentrantLockList " + lockListCost + "ms, "
+                    + "synchronizedSortedSet " + syncSetCost + "ms, "
+                    + "LockFreeSkipListSet " + skipListCost + "ms");
+        }
+    }
+
+
+    /**
+     * NoReentrantLock 三种公平性策略的 吞吐量 与 获取锁延迟p99.9 对比
+     * 每个线程在固定时间内反复 加锁 -> 短临界区 -> 释放锁，每次lock()的等待时间记录到ConcurrentHistogram中
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void noReentrantLockFairnessPolicies() throws InterruptedException {
+        final int THREADS = 8;
+        final long DURATION_MS = 500;
+        for (NoReentrantLock.FairnessPolicy policy : NoReentrantLock.FairnessPolicy.values()) {
+            NoReentrantLock lock = new NoReentrantLock(policy);
+            ConcurrentHistogram latencies = new ConcurrentHistogram(THREADS);
+            long[] counter = new long[1];
+            AtomicBoolean running = new AtomicBoolean(true);
+
+            Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                threads[t] = new Thread(() -> {
+                    while (running.get()) {
+                        long begin = System.nanoTime();
+                        lock.lock();
+                        try {
+                            latencies.record(System.nanoTime() - begin);
+                            counter[0]++;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            Thread.sleep(DURATION_MS);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            ConcurrentHistogram.Snapshot snapshot = latencies.snapshot();
+            System.out.println(policy + ": " + (snapshot.getTotalCount() * 1000L / DURATION_MS) + " acquires/s"
+                    + ", p50 " + snapshot.getValueAtPercentile(50) + "ns"
+                    + ", p99 " + snapshot.getValueAtPercentile(99) + "ns"
+                    + ", p99.9 " + snapshot.getValueAtPercentile(99.9) + "ns"
+                    + ", max " + snapshot.getMax() + "ns"
+                    + " (counter " + counter[0] + ")");
+        }
+    }
+
+
+    /**
+     * NoReentrantLock 阻塞获取锁 与 异步获取锁 混合使用
+     * 阻塞线程调用 lock()，异步调用方调用 lockAsync(executor) 不阻塞自己，拿到锁后在executor上执行临界区并释放锁
+     * 两种方式保护同一个计数器，最终结果应该等于总的加锁次数
+     *
+     * @throws Exception
+     */
+    @Test
+    void noReentrantLockAsync() throws Exception {
+        final int BLOCKING_THREADS = 4;
+        final int OPS = 10_000;
+        NoReentrantLock lock = new NoReentrantLock();
+        ExecutorService eventLoop = Executors.newFixedThreadPool(2);
+        long[] counter = new long[1];
+
+        // 异步调用方: 只提交请求，不阻塞
+        CompletableFuture<?>[] asyncOps = new CompletableFuture<?>[OPS];
+        Thread asyncCaller = new Thread(() -> {
+            for (int i = 0; i < OPS; i++) {
+                asyncOps[i] = lock.lockAsync(eventLoop).thenRun(() -> {
+                    try {
+                        counter[0]++;
+                    } finally {
+                        lock.unlock();
+                    }
+                });
+            }
+        });
+        asyncCaller.start();
+
+        // 阻塞调用方
+        long blockingCost = runConcurrently(BLOCKING_THREADS, () -> {
+            for (int i = 0; i < OPS; i++) {
+                lock.lock();
+                try {
+                    counter[0]++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        asyncCaller.join();
+        CompletableFuture.allOf(asyncOps).get(10, TimeUnit.SECONDS);
+        eventLoop.shutdown();
+
+        System.out.println("blocking threads cost " + blockingCost + "ms, counter: " + counter[0]
+                + ", expected: " + (BLOCKING_THREADS + 1) * OPS + ", locked: " + lock.isLocked());
+        assertEquals((BLOCKING_THREADS + 1) * OPS, counter[0]);
+        assertFalse(lock.isLocked());
+
+        // 序列化之后的锁可以继续使用(包括异步获取)
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(lock);
+        }
+        NoReentrantLock copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (NoReentrantLock) in.readObject();
+        }
+        copy.lock();
+        CompletableFuture<Void> pending = copy.lockAsync(Runnable::run);
+        copy.unlock();
+        pending.get(1, TimeUnit.SECONDS);
+        copy.unlock();
+        assertFalse(copy.isLocked());
+    }
+
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * 当前线程从启动以来在堆上分配的字节数(HotSpot)
+     */
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // 环形缓冲区中每条记录的布局: id(long) + timestamp(long) + value(int) + 4字节填充
+    private static final int ID_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int VALUE_OFFSET = 16;
+    private static final int RECORD_SIZE = 24;
+
+    /**
+     * OffHeapRingBuffer 与 LinkedBlockingQueue 传递消息的 吞吐量 和 生产者/消费者线程的堆内存分配量 对比
+     * 先预热一轮，再统计第二轮，环形缓冲区的分配量应该为0
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void offHeapRingBufferVsLinkedBlockingQueue() throws InterruptedException {
+        final int MESSAGES = 2_000_000;
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            for (OffHeapRingBuffer.ProducerType type : OffHeapRingBuffer.ProducerType.values()) {
+                benchmarkRingBuffer(type, type == OffHeapRingBuffer.ProducerType.SINGLE ? 1 : 2, MESSAGES, report);
+            }
+            benchmarkLinkedBlockingQueue(MESSAGES, report);
+        }
+    }
+
+    private static void benchmarkRingBuffer(OffHeapRingBuffer.ProducerType type, int producers, int messages,
+                                            boolean report) throws InterruptedException {
+        OffHeapRingBuffer ring = new OffHeapRingBuffer(1 << 12, RECORD_SIZE, type);
+        long[] producerAllocated = new long[producers];
+        long[] consumerResult = new long[2];
+        final int perProducer = messages / producers;
+
+        // 处理器只创建一次，原地读取字段
+        final long[] checksum = new long[1];
+        OffHeapRingBuffer.RecordHandler handler = (buffer, offset, sequence) ->
+                checksum[0] += buffer.getLong(offset + ID_OFFSET) + buffer.getInt(offset + VALUE_OFFSET);
+
+        Thread consumer = new Thread(() -> {
+            long before = allocatedBytes();
+            int consumed = 0;
+            while (consumed < perProducer * producers) {
+                int n = ring.poll(handler, 256);
+                if (n == 0) {
+                    Thread.yield();
+                }
+                consumed += n;
+            }
+            consumerResult[0] = allocatedBytes() - before;
+            consumerResult[1] = checksum[0];
+        });
+        Thread[] producerThreads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int index = p;
+            producerThreads[p] = new Thread(() -> {
+                long before = allocatedBytes();
+                for (int i = 0; i < perProducer; i++) {
+                    long sequence = ring.claim();
+                    ring.putLong(sequence, ID_OFFSET, i);
+                    ring.putLong(sequence, TIMESTAMP_OFFSET, System.nanoTime());
+                    ring.putInt(sequence, VALUE_OFFSET, 1);
+                    ring.publish(sequence);
+                }
+                producerAllocated[index] = allocatedBytes() - before;
+            });
+        }
+
+        long start = System.nanoTime();
+        consumer.start();
+        for (Thread producer : producerThreads) {
+            producer.start();
+        }
+        for (Thread producer : producerThreads) {
+            producer.join();
+        }
+        consumer.join();
+        long cost = System.nanoTime() - start;
+
+        long expected = (long) producers * ((long) perProducer * (perProducer - 1) / 2 + perProducer);
+        if (report) {
+            System.out.println("OffHeapRingBuffer(" + type + ", " + producers + " producers): "
+                    + (long) perProducer * producers * 1_000_000_000L / cost + " msg/s"
+                    + ", producer allocated " + Arrays.stream(producerAllocated).sum() + " bytes"
+                    + ", consumer allocated " + consumerResult[0] + " bytes");
+        }
+        // 丢失或者读到写了一半的记录时校验和不一致
+        assertEquals(expected, consumerResult[1]);
+    }
+
+    private static void benchmarkLinkedBlockingQueue(int messages, boolean report) throws InterruptedException {
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>(1 << 12);
+        long[] allocated = new long[2];
+
+        Thread consumer = new Thread(() -> {
+            long before = allocatedBytes();
+            try {
+                for (int i = 0; i < messages; i++) {
+                    queue.take();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            allocated[1] = allocatedBytes() - before;
+        });
+        Thread producer = new Thread(() -> {
+            long before = allocatedBytes();
+            try {
+                for (int i = 0; i < messages; i++) {
+                    queue.put("element" + i);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            allocated[0] = allocatedBytes() - before;
+        });
+
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        long cost = System.nanoTime() - start;
+
+        if (report) {
+            System.out.println("LinkedBlockingQueue<String>: " + (long) messages * 1_000_000_000L / cost + " msg/s"
+                    + ", producer allocated " + allocated[0] + " bytes"
+                    + ", consumer allocated " + allocated[1] + " bytes");
+        }
+    }
+
+
+    /**
+     * 基于内存映射文件的持久化队列
+     * ①三种刷盘策略下的 批量追加吞吐量，消费者同时读取并定期提交位置，读到一半时"宕机"(关闭队列)
+     * ②重新打开目录，消费者从已提交的位置继续读完剩下的消息，然后回收已消费完的段文件
+     *
+     * @throws Exception
+     */
+    @Test
+    void mappedPersistentQueue() throws Exception {
+        final int MESSAGES = 1_000_000;
+        final int BATCH = 1_000;
+        final int PAYLOAD_SIZE = 64;
+        final int SEGMENT_SIZE = 16 << 20;
+
+        for (MappedPersistentQueue.SyncPolicy policy : MappedPersistentQueue.SyncPolicy.values()) {
+            File directory = Files.createTempDirectory("mapped-queue").toFile();
+            try {
+                long[] nextExpected = new long[1];
+                boolean[] ordered = {true};
+                MappedPersistentQueue.RecordHandler handler = (buffer, offset, length) -> {
+                    ordered[0] &= buffer.getLong(offset) == nextExpected[0]++;
+                };
+
+                //①生产者批量追加，消费者同时读取，读到一半时关闭
+                long appendCost;
+                try (MappedPersistentQueue queue = new MappedPersistentQueue(directory, SEGMENT_SIZE, policy, 10)) {
+                    MappedPersistentQueue.Consumer consumer = queue.consumer("consumer");
+                    Thread consumerThread = new Thread(() -> {
+                        int consumed = 0;
+                        while (consumed < MESSAGES / 2) {
+                            int n = consumer.poll(handler, Math.min(BATCH, MESSAGES / 2 - consumed));
+                            if (n == 0) {
+                                Thread.yield();
+                                continue;
+                            }
+                            consumed += n;
+                            consumer.commit();
+                        }
+                    });
+                    consumerThread.start();
+
+                    List<byte[]> batch = new ArrayList<>(BATCH);
+                    for (int i = 0; i < BATCH; i++) {
+                        batch.add(new byte[PAYLOAD_SIZE]);
+                    }
+                    long start = System.nanoTime();
+                    for (long id = 0; id < MESSAGES; ) {
+                        for (byte[] payload : batch) {
+                            ByteBuffer.wrap(payload).putLong(0, id++);
+                        }
+                        queue.appendBatch(batch);
+                    }
+                    appendCost = System.nanoTime() - start;
+                    consumerThread.join();
+                }
+
+                //②重启: 恢复写入位置，消费者从已提交的位置继续
+                try (MappedPersistentQueue queue = new MappedPersistentQueue(directory, SEGMENT_SIZE, policy, 10)) {
+                    MappedPersistentQueue.Consumer consumer = queue.consumer("consumer");
+                    long resumedAt = nextExpected[0];
+                    int remaining = 0;
+                    for (int n; (n = consumer.poll(handler, BATCH)) > 0; ) {
+                        remaining += n;
+                        consumer.commit();
+                    }
+                    int segmentsBefore = queue.getSegmentCount();
+                    int reclaimed = queue.reclaim();
+
+                    System.out.println(policy + ": append " + (MESSAGES * 1_000_000_000L / appendCost) + " msg/s"
+                            + ", resumed at message " + resumedAt + ", read " + remaining + " after restart"
+                            + ", in order: " + ordered[0]
+                            + ", segments " + segmentsBefore + " -> reclaimed " + reclaimed);
+                }
+
+                // 用不同的segmentSize重新打开，拒绝而不是截断已有的段文件
+                try {
+                    new MappedPersistentQueue(directory, SEGMENT_SIZE / 2, policy, 10).close();
+                    throw new IllegalStateException("reopened with a different segmentSize");
+                } catch (IOException e) {
+                    System.out.println(policy + ": reopen rejected: " + e.getMessage());
+                }
+            } finally {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                directory.delete();
+            }
+        }
+    }
+
+
+    /**
+     * 基于AQS共享模式的舱壁 与 惰性补充的令牌桶，以及把它们放在Controller前面的过滤器
+     * ①舱壁: 10个许可，20个线程同时进入，最多只有10个同时在处理，其余立即被拒绝
+     * ②令牌桶: 每秒1000个令牌，容量100，瞬间请求1000次只有约100次成功
+     * ③过滤器: 舱壁满时返回503，没有令牌时返回429
+     *
+     * @throws Exception
+     */
+    @Test
+    void bulkheadAndRateLimiter() throws Exception {
+        //①舱壁
+        Bulkhead bulkhead = new Bulkhead(10);
+        AtomicInteger admitted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch hold = new CountDownLatch(1);
+        Thread[] threads = new Thread[20];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                if (!bulkhead.tryAcquire()) {
+                    rejected.incrementAndGet();
+                    return;
+                }
+                try {
+                    admitted.incrementAndGet();
+                    maxInFlight.accumulateAndGet(bulkhead.inFlight(), Math::max);
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    bulkhead.release();
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(500);
+        hold.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("bulkhead: admitted " + admitted.get() + ", rejected " + rejected.get()
+                + ", max in flight " + maxInFlight.get() + ", available after " + bulkhead.availablePermits());
+
+        //②令牌桶
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(1000, 100);
+        int granted = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            if (rateLimiter.tryAcquire()) {
+                granted++;
+            }
+        }
+        long perCall = (System.nanoTime() - start) / 1000;
+        boolean waited = rateLimiter.tryAcquire(10, TimeUnit.MILLISECONDS);
+        System.out.println("rate limiter: granted " + granted + " of 1000 burst requests, " + perCall + "ns per call"
+                + ", timed acquire after burst: " + waited);
+
+        // 等待时被中断: 预定的令牌退还，不会丢失
+        TokenBucketRateLimiter slowLimiter = new TokenBucketRateLimiter(1, 1);
+        assertTrue(slowLimiter.tryAcquire());
+        Thread interrupted = new Thread(() -> {
+            try {
+                slowLimiter.tryAcquire(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // 预期
+            }
+        });
+        interrupted.start();
+        Thread.sleep(50);
+        interrupted.interrupt();
+        interrupted.join();
+        // 退还之后下一个令牌约1s后可用；没有退还则要等约2s，超过1.5s的等待上限
+        assertTrue(slowLimiter.tryAcquire(1500, TimeUnit.MILLISECONDS));
+
+        //③过滤器
+        Bulkhead fullBulkhead = new Bulkhead(1);
+        fullBulkhead.tryAcquire();
+        AdmissionControlFilter bulkheadFilter = new AdmissionControlFilter(new TokenBucketRateLimiter(1000, 100),
+                fullBulkhead, 0, TimeUnit.MILLISECONDS);
+        MockHttpServletResponse bulkheadResponse = new MockHttpServletResponse();
+        bulkheadFilter.doFilter(new MockHttpServletRequest("GET", "/"), bulkheadResponse, new MockFilterChain());
+
+        AdmissionControlFilter rateFilter = new AdmissionControlFilter(new TokenBucketRateLimiter(1, 1),
+                new Bulkhead(10), 0, TimeUnit.MILLISECONDS);
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        rateFilter.doFilter(new MockHttpServletRequest("GET", "/"), first, new MockFilterChain());
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        rateFilter.doFilter(new MockHttpServletRequest("GET", "/"), second, new MockFilterChain());
+        System.out.println("filter: bulkhead full -> " + bulkheadResponse.getStatus()
+                + ", rate limited -> " + first.getStatus() + ", " + second.getStatus());
+    }
+
+
+    /**
+     * StripedHashMap 与 一把NoReentrantLock保护的HashMap 对比
+     * 多个线程对同一批key做 merge 计数 + 读，最后校验计数总和，并观察各段独立扩容
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void stripedHashMapVsSingleLock() throws InterruptedException {
+        final int THREADS = 8;
+        final int OPS_PER_THREAD = 200_000;
+        final int KEYS = 10_000;
+
+        StripedHashMap<Integer, Long> striped = new StripedHashMap<>(16, 2);
+        long stripedCost = runConcurrently(THREADS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                int key = random.nextInt(KEYS);
+                if ((i & 3) == 0) {
+                    striped.merge(key, 1L, Long::sum);
+                } else {
+                    striped.get(key);
+                }
+            }
+        });
+        long[] stripedTotal = new long[1];
+        striped.forEach((key, count) -> stripedTotal[0] += count);
+
+        Map<Integer, Long> plain = new HashMap<>();
+        NoReentrantLock lock = new NoReentrantLock();
+        long singleLockCost = runConcurrently(THREADS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                int key = random.nextInt(KEYS);
+                lock.lock();
+                try {
+                    if ((i & 3) == 0) {
+                        plain.merge(key, 1L, Long::sum);
+                    } else {
+                        plain.get(key);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        System.out.println("StripedHashMap " + stripedCost + "ms (size " + striped.size() + ", merged " + stripedTotal[0]
+                + "), single NoReentrantLock HashMap " + singleLockCost + "ms");
+        System.out.println("segment capacities: " + Arrays.toString(striped.segmentCapacities()));
+
+        // 批量操作: 每段只加锁一次
+        Map<Integer, Long> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            batch.put(i, 1_000L);
+        }
+        striped.mergeAll(batch, Long::sum);
+        Map<Integer, Long> initialized = striped.computeIfAbsentAll(Arrays.asList(KEYS, KEYS + 1), key -> 0L);
+        System.out.println("after mergeAll key 0: " + striped.get(0) + ", computeIfAbsentAll: " + initialized);
+    }
+
+    /**
+     * 生成Zipf分布的累积分布函数: 第k个key(从1开始)被访问的概率与 1/k^exponent 成正比
+     */
+    private static double[] zipfCdf(int keys, double exponent) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int k = 1; k <= keys; k++) {
+            sum += 1.0 / Math.pow(k, exponent);
+            cdf[k - 1] = sum;
+        }
+        for (int i = 0; i < keys; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * 用ThreadLocalRandom按Zipf分布取一个key，二分查找累积分布函数
+     */
+    private static int nextZipf(double[] cdf) {
+        int index = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, cdf.length - 1);
+    }
+
+    /**
+     * TinyLfuCache 与 加锁的LRU(LinkedHashMap访问顺序) 在Zipf分布访问下的命中率和吞吐量对比
+     * 缓存容量为key总数的1%，未命中时加载并放入
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void tinyLfuCacheVsLockedLru() throws InterruptedException {
+        final int THREADS = 4;
+        final int OPS_PER_THREAD = 500_000;
+        final int KEYS = 100_000;
+        final int CAPACITY = KEYS / 100;
+        for (double exponent : new double[]{0.8, 0.99}) {
+            double[] cdf = zipfCdf(KEYS, exponent);
+
+            TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(CAPACITY);
+            long cacheCost = runConcurrently(THREADS, () -> {
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    cache.get(nextZipf(cdf), key -> key);
+                }
+            });
+            cache.cleanUp();
+
+            ReentrantLock lruLock = new ReentrantLock();
+            Map<Integer, Integer> lru = new LinkedHashMap<Integer, Integer>(CAPACITY * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                    return size() > CAPACITY;
+                }
+            };
+            LongAdder lruHits = new LongAdder();
+            long lruCost = runConcurrently(THREADS, () -> {
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    int key = nextZipf(cdf);
+                    lruLock.lock();
+                    try {
+                        if (lru.get(key) != null) {
+                            lruHits.increment();
+                        } else {
+                            lru.put(key, key);
+                        }
+                    } finally {
+                        lruLock.unlock();
+                    }
+                }
+            });
+
+            long totalOps = (long) THREADS * OPS_PER_THREAD;
+            System.out.printf("zipf %.2f: TinyLfuCache hit ratio %.2f%%, %d ops/ms (size %d, evictions %d); "
+                            + "locked LRU hit ratio %.2f%%, %d ops/ms%n",
+                    exponent, cache.hitRate() * 100, totalOps / Math.max(cacheCost, 1), cache.estimatedSize(),
+                    cache.evictionCount(), lruHits.sum() * 100.0 / totalOps, totalOps / Math.max(lruCost, 1));
+        }
+
+        // 按写入时间过期
+        TinyLfuCache<String, String> expiring = new TinyLfuCache<>(100, 50, TimeUnit.MILLISECONDS);
+        expiring.put("k", "v");
+        System.out.println("before expiry: " + expiring.getIfPresent("k"));
+        Thread.sleep(100);
+        System.out.println("after expiry: " + expiring.getIfPresent("k"));
+        expiring.cleanUp();
+        System.out.println("size " + expiring.estimatedSize() + ", expirations " + expiring.expirationCount());
+    }
+
+    /**
+     * 时间轮 与 ScheduledThreadPoolExecutor 的插入、取消吞吐量对比
+     * 大量超时任务在到期之前就被取消(例如请求超时、锁超时)，时间轮插入和取消都是O(1)，ScheduledThreadPoolExecutor是O(logN)
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void hashedWheelTimerVsScheduledThreadPool() throws InterruptedException {
+        final int TIMEOUTS = 200_000;
+        Runnable noop = () -> {
+        };
+        for (int round = 0; round < 3; round++) {
+            HashedWheelTimer timer = new HashedWheelTimer();
+            HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[TIMEOUTS];
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMEOUTS; i++) {
+                timeouts[i] = timer.newTimeout(noop, 1_000 + ThreadLocalRandom.current().nextInt(60_000), TimeUnit.MILLISECONDS);
+            }
+            long wheelSchedule = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (HashedWheelTimer.Timeout timeout : timeouts) {
+                timeout.cancel();
+            }
+            long wheelCancel = System.nanoTime() - start;
+            timer.stop();
+
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+            // 取消时从堆中删除，否则取消的任务一直留在队列里直到到期
+            scheduler.setRemoveOnCancelPolicy(true);
+            ScheduledFuture<?>[] futures = new ScheduledFuture<?>[TIMEOUTS];
+            start = System.nanoTime();
+            for (int i = 0; i < TIMEOUTS; i++) {
+                futures[i] = scheduler.schedule(noop, 1_000 + ThreadLocalRandom.current().nextInt(60_000), TimeUnit.MILLISECONDS);
+            }
+            long poolSchedule = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+            long poolCancel = System.nanoTime() - start;
+            scheduler.shutdownNow();
+
+            System.out.println("round " + round + ", " + TIMEOUTS + " timeouts: "
+                    + "HashedWheelTimer schedule " + wheelSchedule / 1_000_000 + "ms, cancel " + wheelCancel / 1_000_000 + "ms; "
+                    + "ScheduledThreadPoolExecutor schedule " + poolSchedule / 1_000_000 + "ms, cancel " + poolCancel / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * 时间轮用于 NoReentrantLock 的超时获取锁 和 延迟提交任务
+     * 主线程持有锁300ms，其他线程超时100ms获取锁，都应该超时失败；主线程释放锁之后，后来的线程可以获取到
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void hashedWheelTimerForLockTimeoutAndDelayedTasks() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512, null);
+        NoReentrantLock lock = new NoReentrantLock();
+        final int WAITERS = 100;
+        AtomicInteger timedOut = new AtomicInteger();
+        ConcurrentHistogram waitHistogram = new ConcurrentHistogram();
+
+        lock.lock();
+        Thread[] threads = new Thread[WAITERS];
+        for (int i = 0; i < WAITERS; i++) {
+            threads[i] = new Thread(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (lock.tryLock(100, TimeUnit.MILLISECONDS, timer)) {
+                        lock.unlock();
+                    } else {
+                        timedOut.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                waitHistogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ConcurrentHistogram.Snapshot snapshot = waitHistogram.snapshot();
+        System.out.println(WAITERS + " waiters timed out: " + timedOut.get() + ", wait p50 " + snapshot.getValueAtPercentile(50)
+                + "ms, max " + snapshot.getMax() + "ms, expired batches " + timer.expiredBatches());
+
+        // 持有者在超时之前释放锁，等待者获取成功
+        Thread waiter = new Thread(() -> {
+            try {
+                boolean acquired = lock.tryLock(1, TimeUnit.SECONDS, timer);
+                System.out.println("waiter acquired before timeout: " + acquired);
+                if (acquired) {
+                    lock.unlock();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        lock.unlock();
+        waiter.join();
+
+        // 超大的延迟饱和为最大的到期时间，不会因为溢出被当作已经到期
+        AtomicBoolean fired = new AtomicBoolean();
+        HashedWheelTimer.Timeout never = timer.newTimeout(() -> fired.set(true), Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        // 延迟提交任务
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CountDownLatch done = new CountDownLatch(1);
+        long submitted = System.nanoTime();
+        timer.schedule(() -> {
+            System.out.println("delayed task ran after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted)
+                    + "ms on " + Thread.currentThread().getName());
+            done.countDown();
+        }, 200, TimeUnit.MILLISECONDS, pool);
+        done.await();
+        pool.shutdown();
+        assertFalse(fired.get());
+        // 停止时返回尚未到期的任务，不再计入等待中的任务数
+        long pendingBeforeStop = timer.pendingTimeouts();
+        List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+        System.out.println("pending timeouts: " + pendingBeforeStop + ", unprocessed on stop: " + unprocessed.size()
+                + ", pending after stop: " + timer.pendingTimeouts());
+        assertTrue(unprocessed.contains(never));
+        assertEquals(0, timer.pendingTimeouts());
+
+        // 定时器已停止: 超时获取锁抛出异常，已经入队的异步等待者被撤回，之后的unlock()不会把锁交给它
+        lock.lock();
+        RejectedExecutionException rejected = assertThrows(RejectedExecutionException.class,
+                () -> lock.tryLock(100, TimeUnit.MILLISECONDS, timer));
+        System.out.println("stopped timer: " + rejected.getMessage());
+        lock.unlock();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+    }
+
+    /**
+     * 在ReentrantLock临界区中打印日志: PrintStream(与System.out一样同步、在调用线程格式化) 与 AsyncLogger 对比
+     * 都写到临时文件，比较所有线程完成的耗时；DROP策略下缓冲区很小时统计丢弃的条数
+     *
+     * @throws Exception
+     */
+    @Test
+    void asyncLoggerVsPrintStream() throws Exception {
+        final int THREADS = 4;
+        final int LINES_PER_THREAD = 50_000;
+        ReentrantLock lock = new ReentrantLock();
+        long[] counter = new long[1];
+
+        File printFile = File.createTempFile("print-stream", ".log");
+        printFile.deleteOnExit();
+        try (PrintStream out = new PrintStream(new FileOutputStream(printFile), true)) {
+            long cost = runConcurrently(THREADS, () -> {
+                for (int i = 0; i < LINES_PER_THREAD; i++) {
+                    lock.lock();
+                    try {
+                        counter[0]++;
+                        out.println(Thread.currentThread().getName() + " counter " + counter[0]);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            System.out.println("PrintStream: " + cost + "ms, file " + printFile.length() / 1024 + "KB");
+        }
+
+        for (AsyncLogger.FullPolicy policy : AsyncLogger.FullPolicy.values()) {
+            File logFile = File.createTempFile("async-logger", ".log");
+            logFile.deleteOnExit();
+            int capacity = policy == AsyncLogger.FullPolicy.DROP ? 256 : 8192;
+            try (AsyncLogger logger = AsyncLogger.toFile(logFile.toPath(), capacity, policy)) {
+                long cost = runConcurrently(THREADS, () -> {
+                    for (int i = 0; i < LINES_PER_THREAD; i++) {
+                        lock.lock();
+                        try {
+                            counter[0]++;
+                            logger.log("counter {}", counter[0]);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+                logger.flush();
+                System.out.println("AsyncLogger(" + policy + ", capacity " + capacity + "): " + cost + "ms, written "
+                        + logger.getWrittenCount() + ", dropped " + logger.getDroppedCount() + ", file " + logFile.length() / 1024 + "KB");
+            }
+        }
+
+        // 模板为null、参数的toString()抛异常: 写出占位行，写线程不退出，之后的日志照常写出
+        File badFile = File.createTempFile("async-logger-bad", ".log");
+        badFile.deleteOnExit();
+        try (AsyncLogger logger = AsyncLogger.toFile(badFile.toPath(), 16, AsyncLogger.FullPolicy.BLOCK)) {
+            Object broken = new Object() {
+                @Override
+                public String toString() {
+                    throw new IllegalStateException("broken toString");
+                }
+            };
+            logger.log(null);
+            logger.log("broken {}", broken);
+            for (int i = 0; i < 100; i++) {
+                logger.log("after errors {}", i);
+            }
+            logger.flush();
+            System.out.println("format errors " + logger.getFormatErrorCount() + ", written " + logger.getWrittenCount());
+            assertEquals(2, logger.getFormatErrorCount());
+            assertEquals(102, logger.getWrittenCount());
+        }
+
+        // 与close()并发的日志: log()返回true的都被写出，没有既不算写出也不算丢弃的
+        for (int round = 0; round < 20; round++) {
+            File raceFile = File.createTempFile("async-logger-close", ".log");
+            raceFile.deleteOnExit();
+            AsyncLogger logger = AsyncLogger.toFile(raceFile.toPath(), 1024, AsyncLogger.FullPolicy.BLOCK);
+            LongAdder accepted = new LongAdder();
+            CountDownLatch started = new CountDownLatch(THREADS);
+            Thread[] loggers = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                loggers[t] = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < LINES_PER_THREAD; i++) {
+                        if (!logger.log("line {}", i)) {
+                            return;
+                        }
+                        accepted.increment();
+                    }
+                });
+                loggers[t].start();
+            }
+            started.await();
+            logger.close();
+            for (Thread thread : loggers) {
+                thread.join();
+            }
+            assertEquals(accepted.sum(), logger.getWrittenCount());
+        }
+    }
+
+    /**
+     * 对象池的 push/pop 成对操作: ReentrantLockStack、TreiberStack、EliminationBackoffStack 在高并发下的吞吐量对比
+     * 每个线程交替 push 一个唯一的值、pop 一个值，最后检查没有丢失或重复的元素(pop到的值 + 栈中剩余的值 恰好是push的所有值)
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void eliminationBackoffStackVsTreiberStack() throws InterruptedException {
+        final int PAIRS_PER_THREAD = 200_000;
+        for (int threadCount : new int[]{8, 32, 64}) {
+            long totalPairs = (long) threadCount * PAIRS_PER_THREAD;
+
+            ReentrantLockStack<Integer> lockStack = new ReentrantLockStack<>();
+            long lockCost = pushPopPairs(threadCount, PAIRS_PER_THREAD, lockStack::push, lockStack::pop);
+
+            TreiberStack<Integer> treiberStack = new TreiberStack<>();
+            long treiberCost = pushPopPairs(threadCount, PAIRS_PER_THREAD, treiberStack::push, treiberStack::pop);
+
+            EliminationBackoffStack<Integer> eliminationStack = new EliminationBackoffStack<>();
+            long eliminationCost = pushPopPairs(threadCount, PAIRS_PER_THREAD, eliminationStack::push, eliminationStack::pop);
+
+            System.out.println(threadCount + " threads, " + totalPairs + " push/pop pairs: "
+                    + "ReentrantLockStack " + lockCost + "ms, "
+                    + "TreiberStack " + treiberCost + "ms, "
+                    + "EliminationBackoffStack " + eliminationCost + "ms");
+            System.out.println("    EliminationBackoffStack: head CAS failures " + eliminationStack.getCasFailureCount()
+                    + ", eliminated pairs " + eliminationStack.getEliminatedCount());
+        }
+    }
+
+    /**
+     * 每个线程交替 push 唯一的值(线程序号 × pairsPerThread + i)、pop 一个值，返回耗时(ms)
+     * 用位图记录pop到的值和最后栈中剩余的值，断言没有重复、没有丢失
+     */
+    private static long pushPopPairs(int threadCount, int pairsPerThread, Consumer<Integer> push, Supplier<Integer> pop)
+            throws InterruptedException {
+        int total = threadCount * pairsPerThread;
+        AtomicLongArray seen = new AtomicLongArray((total + 63) >>> 6);
+        LongAdder duplicates = new LongAdder();
+        IntConsumer record = value -> {
+            int index = value >>> 6;
+            long bit = 1L << (value & 63);
+            if ((seen.getAndAccumulate(index, bit, (old, b) -> old | b) & bit) != 0) {
+                duplicates.increment();
+            }
+        };
+        AtomicInteger threadIds = new AtomicInteger();
+        long cost = runConcurrently(threadCount, () -> {
+            int base = threadIds.getAndIncrement() * pairsPerThread;
+            for (int i = 0; i < pairsPerThread; i++) {
+                push.accept(base + i);
+                Integer value = pop.get();
+                if (value != null) {
+                    record.accept(value);
+                }
+            }
+        });
+        for (Integer value; (value = pop.get()) != null; ) {
+            record.accept(value);
+        }
+        long distinct = 0;
+        for (int i = 0; i < seen.length(); i++) {
+            distinct += Long.bitCount(seen.get(i));
+        }
+        assertEquals(0, duplicates.sum());
+        assertEquals(total, distinct);
+        return cost;
+    }
+
+    /**
+     * 大批量传递long: 逐个元素同步的ArrayBlockingQueue 与 双缓冲交换的DoubleBufferedPipe 对比
+     * 统计 吞吐量、生产者线程的堆内存分配量，并校验校验和；最后演示消费者不在时交换超时
+     *
+     * @throws Exception
+     */
+    @Test
+    void doubleBufferedPipeVsBlockingQueue() throws Exception {
+        final int ELEMENTS = 10_000_000;
+        final int BUFFER = 1 << 16;
+        final long expected = (long) ELEMENTS * (ELEMENTS - 1) / 2;
+
+        // 逐个元素同步
+        for (int round = 0; round < 2; round++) {
+            ArrayBlockingQueue<Long> queue = new ArrayBlockingQueue<>(BUFFER);
+            long[] producerAllocated = new long[1];
+            long[] checksum = new long[1];
+            Thread consumer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < ELEMENTS; i++) {
+                        checksum[0] += queue.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Thread producer = new Thread(() -> {
+                long before = allocatedBytes();
+                try {
+                    for (int i = 0; i < ELEMENTS; i++) {
+                        queue.put((long) i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                producerAllocated[0] = allocatedBytes() - before;
+            });
+            long cost = transfer(producer, consumer);
+            if (round == 1) {
+                System.out.println("ArrayBlockingQueue<Long>: " + report(ELEMENTS, cost) + ", producer allocated "
+                        + producerAllocated[0] / 1024 + "KB");
+            }
+            assertEquals(expected, checksum[0]);
+        }
+
+        // 双缓冲: 逐个put 和 批量put
+        for (boolean bulk : new boolean[]{false, true}) {
+            for (int round = 0; round < 2; round++) {
+                DoubleBufferedPipe pipe = new DoubleBufferedPipe(BUFFER, 1, TimeUnit.SECONDS);
+                long[] producerAllocated = new long[1];
+                long[] checksum = new long[1];
+                DoubleBufferedPipe.BatchHandler handler = (values, size) -> {
+                    long sum = 0;
+                    for (int i = 0; i < size; i++) {
+                        sum += values[i];
+                    }
+                    checksum[0] += sum;
+                };
+                Thread consumer = new Thread(() -> {
+                    try {
+                        while (pipe.drain(handler)) {
+                            // 处理下一个缓冲区
+                        }
+                    } catch (InterruptedException | TimeoutException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                long[] chunk = new long[4096];
+                Thread producer = new Thread(() -> {
+                    long before = allocatedBytes();
+                    try {
+                        if (bulk) {
+                            for (int i = 0; i < ELEMENTS; i += chunk.length) {
+                                int n = Math.min(chunk.length, ELEMENTS - i);
+                                for (int j = 0; j < n; j++) {
+                                    chunk[j] = i + j;
+                                }
+                                for (int written = 0; written < n; ) {
+                                    written += pipe.put(chunk, written, n - written);
+                                }
+                            }
+                        } else {
+                            for (int i = 0; i < ELEMENTS; i++) {
+                                pipe.put(i);
+                            }
+                        }
+                        pipe.close();
+                    } catch (InterruptedException | TimeoutException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    producerAllocated[0] = allocatedBytes() - before;
+                });
+                long cost = transfer(producer, consumer);
+                if (round == 1) {
+                    System.out.println("DoubleBufferedPipe(" + (bulk ? "bulk put" : "put") + ", " + BUFFER + " longs): "
+                            + report(ELEMENTS, cost) + ", producer allocated " + producerAllocated[0] / 1024 + "KB");
+                }
+                assertEquals(expected, checksum[0]);
+            }
+        }
+
+        // 消费者不在，交换超时；之后消费者到来，重试同一个put成功
+        DoubleBufferedPipe lonely = new DoubleBufferedPipe(4, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 4; i++) {
+            lonely.put(i);
+        }
+        long start = System.nanoTime();
+        try {
+            lonely.put(4);
+        } catch (TimeoutException e) {
+            System.out.println("swap timed out after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+        long[] received = new long[2];
+        Thread lateConsumer = new Thread(() -> {
+            try {
+                while (lonely.drain((values, size) -> {
+                    for (int i = 0; i < size; i++) {
+                        received[0]++;
+                        received[1] += values[i];
+                    }
+                })) {
+                    // 处理下一个缓冲区
+                }
+            } catch (InterruptedException | TimeoutException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        lateConsumer.start();
+        lonely.put(4);
+        lonely.close();
+        lateConsumer.join();
+        System.out.println("after retry: received " + received[0] + " values, sum " + received[1]);
+        assertEquals(5, received[0]);
+        assertEquals(0 + 1 + 2 + 3 + 4, received[1]);
+    }
+
+    /**
+     * 启动生产者和消费者，返回两者都结束的耗时(ns)
+     */
+    private static long transfer(Thread producer, Thread consumer) throws InterruptedException {
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static String report(long elements, long costNanos) {
+        return elements * 1_000_000_000L / costNanos + " longs/s, "
+                + elements * Long.BYTES * 1_000_000_000L / costNanos / (1024 * 1024) + "MB/s";
+    }
+
+    /**
+     * 读多写少: READERS个读线程随机get，1个写线程不停地 add/remove(元素个数不变)
+     * ReentrantLockList: 写线程持有锁时读线程阻塞
+     * CopyOnWriteArrayList(Chapter5): 读不阻塞，每次写复制整个数组
+     * LeftRightList: 读不阻塞、不重试，每次写修改两份ArrayList并等待旧的读线程离开
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void leftRightListVsLockAndCopyOnWrite() throws InterruptedException {
+        final int SIZE = 1_000;
+        ReentrantLockList<Integer> lockList = new ReentrantLockList<>();
+        CopyOnWriteArrayList<Integer> cowList = new CopyOnWriteArrayList<>();
+        LeftRightList<Integer> leftRightList = new LeftRightList<>();
+        for (int i = 0; i < SIZE; i++) {
+            lockList.add(i);
+            cowList.add(i);
+            leftRightList.add(i);
+        }
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            benchmarkReadMostly("ReentrantLockList", SIZE, lockList::get, value -> {
+                lockList.add(value);
+                lockList.remove(value);
+            }, report);
+            benchmarkReadMostly("CopyOnWriteArrayList", SIZE, cowList::get, value -> {
+                cowList.add(value);
+                cowList.remove(Integer.valueOf(value));
+            }, report);
+            benchmarkReadMostly("LeftRightList", SIZE, leftRightList::get, value -> {
+                leftRightList.add(value);
+                leftRightList.remove(value);
+            }, report);
+        }
+    }
+
+    private static void benchmarkReadMostly(String name, int size, IntFunction<Integer> get, IntConsumer write,
+                                            boolean report) throws InterruptedException {
+        final int READERS = 8;
+        final long DURATION_MS = 500;
+        ConcurrentHistogram latencies = new ConcurrentHistogram(READERS);
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] writes = new long[1];
+
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            readers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int index = random.nextInt(size);
+                    long begin = System.nanoTime();
+                    if (get.apply(index) == null) {
+                        throw new IllegalStateException("missing element at " + index);
+                    }
+                    latencies.record(System.nanoTime() - begin);
+                }
+            });
+        }
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                write.accept(size + (int) (writes[0] & 1023));
+                writes[0]++;
+            }
+        });
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.start();
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        writer.join();
+
+        if (report) {
+            ConcurrentHistogram.Snapshot snapshot = latencies.snapshot();
+            System.out.println(name + ": " + (snapshot.getTotalCount() * 1000L / DURATION_MS) + " reads/s"
+                    + ", read p50 " + snapshot.getValueAtPercentile(50) + "ns"
+                    + ", p99 " + snapshot.getValueAtPercentile(99) + "ns"
+                    + ", p99.9 " + snapshot.getValueAtPercentile(99.9) + "ns"
+                    + ", max " + snapshot.getMax() + "ns"
+                    + ", " + writes[0] * 1000L / DURATION_MS + " write pairs/s");
+        }
+    }
+
+    /**
+     * 解析 -> 补全 -> 持久化 三个阶段的流水线
+     * parse: 字符串转数字(CPU)；enrich: 每个元素1ms的远程查询；persist: 每批2ms的批量写入(与批次大小无关)
+     * 第一轮找到瓶颈阶段(没有被反压、输入队列最满)，第二轮只把该阶段的线程数调大，其他阶段不变
+     * 下游跟不上时上游阻塞(反压)，队列深度保持在容量以内
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void stagedPipelineFindAndScaleBottleneck() throws InterruptedException {
+        final long PHASE_MS = 1_000;
+        AtomicLong persisted = new AtomicLong();
+        StagedPipeline<String> pipeline = StagedPipeline.<String>builder()
+                .stage("parse", 1, 256, 16, (List<String> batch, Consumer<Integer> out) -> {
+                    for (String line : batch) {
+                        out.accept(Integer.parseInt(line));
+                    }
+                })
+                .stage("enrich", 2, 256, 1, (List<Integer> batch, Consumer<long[]> out) -> {
+                    Thread.sleep(1);
+                    for (Integer id : batch) {
+                        out.accept(new long[]{id, id * 31L});
+                    }
+                })
+                .stage("persist", 1, 256, 64, (List<long[]> batch, Consumer<Object> out) -> {
+                    Thread.sleep(2);
+                    persisted.addAndGet(batch.size());
+                })
+                .build();
+
+        int next = 0;
+        for (int phase = 0; phase < 2; phase++) {
+            pipeline.metrics();
+            long persistedBefore = persisted.get();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MS);
+            while (System.nanoTime() < deadline) {
+                // 队列满时阻塞，最多等10ms再检查是否到时间
+                if (pipeline.offer(String.valueOf(next), 10, TimeUnit.MILLISECONDS)) {
+                    next++;
+                }
+            }
+            List<StagedPipeline.StageMetrics> metrics = pipeline.metrics();
+            System.out.println("phase " + phase + ": " + (persisted.get() - persistedBefore) * 1000 / PHASE_MS
+                    + " items/s persisted");
+            for (StagedPipeline.StageMetrics stage : metrics) {
+                System.out.println("    " + stage.getName() + ": workers " + stage.getWorkers()
+                        + ", queue " + stage.getQueueDepth() + "/" + stage.getQueueCapacity()
+                        + ", avg batch " + stage.getProcessed() / Math.max(stage.getBatches(), 1)
+                        + ", avg batch time " + stage.getAvgBatchNanos() / 1000 + "us"
+                        + ", utilization " + String.format("%.2f", stage.getUtilization())
+                        + ", blocked by downstream " + stage.getBlockedMillis() + "ms");
+            }
+            StagedPipeline.StageMetrics bottleneck = StagedPipeline.bottleneck(metrics);
+            if (phase == 0) {
+                System.out.println("    bottleneck: " + bottleneck.getName() + ", scale it to 8 workers");
+                pipeline.setWorkers(bottleneck.getName(), 8);
+            }
+        }
+
+        boolean drained = pipeline.shutdownAndAwait(10, TimeUnit.SECONDS);
+        System.out.println("submitted " + next + ", persisted " + persisted.get() + ", drained: " + drained);
+        assertEquals(next, persisted.get());
+
+        // 关闭与提交并发: 被接收的元素都会被处理，关闭之后的提交被拒绝
+        for (int round = 0; round < 100; round++) {
+            AtomicLong handled = new AtomicLong();
+            StagedPipeline<Integer> counting = StagedPipeline.<Integer>builder()
+                    .stage("count", 2, 16, 4, (List<Integer> batch, Consumer<Object> out) -> handled.addAndGet(batch.size()))
+                    .build();
+            long[] accepted = new long[1];
+            Thread submitter = new Thread(() -> {
+                try {
+                    while (true) {
+                        counting.submit(1);
+                        accepted[0]++;
+                    }
+                } catch (RejectedExecutionException | InterruptedException e) {
+                    // 已关闭
+                }
+            });
+            submitter.start();
+            Thread.sleep(1);
+            assertTrue(counting.shutdownAndAwait(10, TimeUnit.SECONDS));
+            submitter.join();
+            assertEquals(accepted[0], handled.get());
+        }
+
+        // 处理器抛出Error: 只算这一批失败，阶段的线程不退出，下游不会被提前结束，上游的提交不会一直阻塞
+        final int ITEMS = 10_000;
+        AtomicLong delivered = new AtomicLong();
+        StagedPipeline<Integer> faulty = StagedPipeline.<Integer>builder()
+                .stage("check", 1, 16, 1, (List<Integer> batch, Consumer<Integer> out) -> {
+                    for (Integer item : batch) {
+                        if (item % 100 == 0) {
+                            throw new AssertionError("bad item " + item);
+                        }
+                        out.accept(item);
+                    }
+                })
+                .stage("sink", 1, 16, 8, (List<Integer> batch, Consumer<Object> out) -> delivered.addAndGet(batch.size()))
+                .build();
+        for (int i = 0; i < ITEMS; i++) {
+            faulty.submit(i);
+        }
+        assertTrue(faulty.shutdownAndAwait(10, TimeUnit.SECONDS));
+        StagedPipeline.StageMetrics check = faulty.metrics().get(0);
+        System.out.println("handler errors: failures " + check.getFailures() + ", delivered " + delivered.get());
+        assertEquals(ITEMS / 100, check.getFailures());
+        assertEquals(ITEMS - ITEMS / 100, delivered.get());
+    }
+
+    /**
+     * 生产者/消费者传递的消息，payload模拟消息体
+     */
+    private static final class Message {
+        long id;
+        long timestamp;
+        final byte[] payload = new byte[256];
+        // Recycler中对应的句柄，新建的消息为null
+        final Recycler.Handle<Message> handle;
+
+        Message(Recycler.Handle<Message> handle) {
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * 生产者/消费者每传递一个元素新建一个Message 与 通过Recycler复用Message 的对比
+     * 生产者取出(acquire)，消费者处理完归还(recycle) ---> 跨线程归还，经过生产者栈的交接队列回到生产者
+     * 统计 生产者线程的分配量、GC次数和时间、端到端延迟p99
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    void recyclerVsAllocationPerMessage() throws InterruptedException {
+        final int MESSAGES = 5_000_000;
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            benchmarkMessages("new Message()", MESSAGES, null, report);
+            Recycler<Message> recycler = new Recycler<>(Message::new, 1024);
+            benchmarkMessages("Recycler", MESSAGES, recycler, report);
+            if (report) {
+                System.out.println("    Recycler: created " + recycler.getCreatedCount()
+                        + ", recycled across threads " + recycler.getRecycledForeignCount()
+                        + ", dropped (returned after the producer exited) " + recycler.getDroppedCount());
+            }
+        }
+
+        // 所属线程结束之后，归还给它的对象被丢弃
+        Recycler<Message> recycler = new Recycler<>(Message::new, 16);
+        List<Recycler.Handle<Message>> handles = new ArrayList<>();
+        Thread owner = new Thread(() -> {
+            for (int i = 0; i < 4; i++) {
+                handles.add(recycler.acquire());
+            }
+        });
+        owner.start();
+        owner.join();
+        handles.forEach(Recycler.Handle::recycle);
+        System.out.println("after owner thread died: dropped " + recycler.getDroppedCount() + " of " + handles.size());
+    }
+
+    private static void benchmarkMessages(String name, int messages, Recycler<Message> recycler, boolean report)
+            throws InterruptedException {
+        ArrayBlockingQueue<Message> queue = new ArrayBlockingQueue<>(256);
+        ConcurrentHistogram latencies = new ConcurrentHistogram(1);
+        long[] producerAllocated = new long[1];
+        long[] consumerChecksum = new long[1];
+
+        Thread consumer = new Thread(() -> {
+            long checksum = 0;
+            try {
+                for (int i = 0; i < messages; i++) {
+                    Message message = queue.take();
+                    checksum += message.id + message.payload[(int) (message.id & 255)];
+                    latencies.record(System.nanoTime() - message.timestamp);
+                    if (message.handle != null) {
+                        message.handle.recycle();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumerChecksum[0] = checksum;
+        });
+        Thread producer = new Thread(() -> {
+            long before = allocatedBytes();
+            try {
+                for (int i = 0; i < messages; i++) {
+                    Message message;
+                    if (recycler == null) {
+                        message = new Message(null);
+                    } else {
+                        message = recycler.acquire().get();
+                    }
+                    message.id = i;
+                    message.payload[i & 255] = (byte) i;
+                    message.timestamp = System.nanoTime();
+                    queue.put(message);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            producerAllocated[0] = allocatedBytes() - before;
+        });
+
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMillis();
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        long cost = System.nanoTime() - start;
+
+        // 复用的消息在被消费之前没有被改写
+        long expected = 0;
+        for (int i = 0; i < messages; i++) {
+            expected += i + (byte) i;
+        }
+        assertEquals(expected, consumerChecksum[0]);
+        if (report) {
+            ConcurrentHistogram.Snapshot snapshot = latencies.snapshot();
+            System.out.println(name + ": " + (long) messages * 1_000_000_000L / cost + " msg/s"
+                    + ", producer allocated " + producerAllocated[0] / (1024 * 1024) + "MB"
+                    + " (" + producerAllocated[0] * 1_000_000_000L / cost / (1024 * 1024) + "MB/s)"
+                    + ", GCs " + (gcCount() - gcCountBefore) + " (" + (gcTimeMillis() - gcTimeBefore) + "ms)"
+                    + ", latency p50 " + snapshot.getValueAtPercentile(50) / 1000 + "us"
+                    + ", p99 " + snapshot.getValueAtPercentile(99) / 1000 + "us"
+                    + ", p99.9 " + snapshot.getValueAtPercentile(99.9) / 1000 + "us");
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
 }
@@ -0,0 +1,144 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 双缓冲管道: 一个生产者线程 -> 一个消费者线程 批量传递long
+ * productionConsumptionModelWithNoReentrantLock 每传递一个元素都要加锁、等待、唤醒一次
+ * <p>
+ * (1)预先分配两个缓冲区，生产者写其中一个，消费者读另一个，之后不再分配
+ * (2)生产者写满一个缓冲区后，在LockFreeExchanger上与消费者交换: 交出写满的，拿回读完的
+ * (3)同步只发生在交换时，每个缓冲区一次，缓冲区内的读写是普通的数组访问
+ * (4)交换有超时，对方迟迟不来时抛出TimeoutException，不会无限等待
+ *    写满的缓冲区在下一次写入之前才交换，交换超时时缓冲区保持写满的状态，之后可以重试
+ * <p>
+ * 只能有一个生产者线程和一个消费者线程
+ *
+ * @author CZS
+ * @create 2026-10-20 03:30
+ **/
+public class DoubleBufferedPipe {
+
+    /**
+     * 消费者处理一个缓冲区
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        /**
+         * @param values 缓冲区，只有前size个有效，方法返回之后会被生产者复用，不能保存引用
+         * @param size
+         */
+        void onBatch(long[] values, int size);
+    }
+
+    private final LockFreeExchanger<Buffer> exchanger = new LockFreeExchanger<>();
+    private final long timeoutNanos;
+    // 只由生产者访问
+    private Buffer filling;
+    // 只由消费者访问
+    private Buffer draining;
+
+    /**
+     * @param capacity 每个缓冲区能放的long个数
+     * @param timeout  交换缓冲区的超时时间
+     * @param unit
+     */
+    public DoubleBufferedPipe(int capacity, long timeout, TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.filling = new Buffer(capacity);
+        this.draining = new Buffer(capacity);
+    }
+
+    /**
+     * 生产者写入一个值，缓冲区已满时先与消费者交换
+     *
+     * @throws TimeoutException 交换超时，value没有写入，可以重试
+     */
+    public void put(long value) throws InterruptedException, TimeoutException {
+        if (filling.size == filling.values.length) {
+            swap(false);
+        }
+        Buffer buffer = filling;
+        buffer.values[buffer.size++] = value;
+    }
+
+    /**
+     * 生产者批量写入
+     *
+     * @return 写入的个数，已经写入一部分之后交换超时时返回已写入的个数，剩下的可以重试
+     * @throws TimeoutException 一个都没有写入时交换超时
+     */
+    public int put(long[] src, int offset, int length) throws InterruptedException, TimeoutException {
+        int written = 0;
+        while (written < length) {
+            if (filling.size == filling.values.length) {
+                try {
+                    swap(false);
+                } catch (TimeoutException e) {
+                    if (written == 0) {
+                        throw e;
+                    }
+                    return written;
+                }
+            }
+            Buffer buffer = filling;
+            int n = Math.min(length - written, buffer.values.length - buffer.size);
+            System.arraycopy(src, offset + written, buffer.values, buffer.size, n);
+            buffer.size += n;
+            written += n;
+        }
+        return written;
+    }
+
+    /**
+     * 生产者交出剩余数据并标记结束，消费者处理完最后一个缓冲区后 drain 返回false
+     *
+     * @throws TimeoutException 交换超时，可以重试
+     */
+    public void close() throws InterruptedException, TimeoutException {
+        swap(true);
+    }
+
+    /**
+     * 消费者拿到下一个写满的缓冲区并处理
+     *
+     * @return false表示生产者已经结束，没有更多数据
+     */
+    public boolean drain(BatchHandler handler) throws InterruptedException, TimeoutException {
+        Buffer buffer = draining;
+        buffer.size = 0;
+        buffer.last = false;
+        buffer = exchanger.exchange(buffer, timeoutNanos, TimeUnit.NANOSECONDS);
+        draining = buffer;
+        if (buffer.size > 0) {
+            handler.onBatch(buffer.values, buffer.size);
+        }
+        return !buffer.last;
+    }
+
+    private void swap(boolean last) throws InterruptedException, TimeoutException {
+        Buffer full = filling;
+        full.last = last;
+        // 交换之前对缓冲区的写 happens-before 消费者拿到缓冲区之后的读(volatile match)
+        Buffer empty = exchanger.exchange(full, timeoutNanos, TimeUnit.NANOSECONDS);
+        empty.size = 0;
+        filling = empty;
+    }
+
+    /**
+     * 预分配的缓冲区，同一时刻只被一个线程持有
+     */
+    private static final class Buffer {
+        final long[] values;
+        int size;
+        boolean last;
+
+        Buffer(int capacity) {
+            this.values = new long[capacity];
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消除回退栈(Elimination Backoff Stack)
+ * TreiberStack 在高并发下所有线程竞争同一个栈顶，CAS失败之后立即重试只会让竞争更激烈
+ * <p>
+ * (1)先按Treiber栈的方式CAS栈顶，成功就返回
+ * (2)CAS失败说明有竞争，不立即重试，而是到消除数组中随机选一个槽位:
+ *    槽位为空 ---> 放入自己的报价(offer)，等待一段时间，等到相反的操作就直接交换
+ *    槽位中是相反的操作(push遇到pop，pop遇到push) ---> 取走报价，直接交换值
+ *    push和pop互相抵消，都不需要访问栈顶
+ * (3)没有等到(超时)或者遇到相同的操作，再回到(1)
+ * <p>
+ * 自适应回退: 每个线程记录自己使用的槽位范围和等待的自旋次数
+ * 交换成功 ---> 竞争激烈，扩大范围分散到更多槽位，缩短等待；超时 ---> 竞争不足，缩小范围集中到少数槽位，范围已经最小时延长等待
+ *
+ * @author CZS
+ * @create 2026-10-20 03:00
+ **/
+public class EliminationBackoffStack<E> {
+    // pop在消除数组中的报价
+    private static final Object POP = new Object();
+    private static final int MIN_WAIT_SPINS = 16;
+    private static final int MAX_WAIT_SPINS = 1 << 10;
+    // 自旋多少次之后让出CPU，单核机器上自旋没有意义，每次都让出
+    private static final int SPINS_BEFORE_YIELD = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 1;
+
+    private final AtomicReference<TreiberStack.Node<E>> top = new AtomicReference<>();
+    // 消除数组
+    private final AtomicReferenceArray<Offer> arena;
+    private final ThreadLocal<Backoff> localBackoff;
+
+    private final LongAdder casFailures = new LongAdder();
+    private final LongAdder eliminated = new LongAdder();
+
+    public EliminationBackoffStack() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param arenaSize 消除数组的槽位数
+     */
+    public EliminationBackoffStack(int arenaSize) {
+        if (arenaSize <= 0) {
+            throw new IllegalArgumentException("arenaSize must be positive: " + arenaSize);
+        }
+        this.arena = new AtomicReferenceArray<>(arenaSize);
+        this.localBackoff = ThreadLocal.withInitial(() -> new Backoff(arenaSize));
+    }
+
+    public void push(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        TreiberStack.Node<E> node = new TreiberStack.Node<>(e);
+        Backoff backoff = null;
+        while (true) {
+            TreiberStack.Node<E> current = top.get();
+            node.next = current;
+            if (top.compareAndSet(current, node)) {
+                return;
+            }
+            casFailures.increment();
+            if (backoff == null) {
+                backoff = localBackoff.get();
+            }
+            if (exchange(e, backoff) == POP) {
+                // 被一个pop取走
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 栈为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public E pop() {
+        Backoff backoff = null;
+        while (true) {
+            TreiberStack.Node<E> current = top.get();
+            if (current == null) {
+                return null;
+            }
+            if (top.compareAndSet(current, current.next)) {
+                return current.item;
+            }
+            casFailures.increment();
+            if (backoff == null) {
+                backoff = localBackoff.get();
+            }
+            Object item = exchange(POP, backoff);
+            if (item != null) {
+                // 拿到一个push的值
+                return (E) item;
+            }
+        }
+    }
+
+    /**
+     * 栈顶CAS失败的次数
+     */
+    public long getCasFailureCount() {
+        return casFailures.sum();
+    }
+
+    /**
+     * 在消除数组中互相抵消的 push/pop 对数
+     */
+    public long getEliminatedCount() {
+        return eliminated.sum();
+    }
+
+    /**
+     * 在消除数组中与相反的操作交换
+     *
+     * @param mine push的值 或者 POP
+     * @return 对方的报价(push拿到POP，pop拿到push的值)，没有交换成功返回null
+     */
+    private Object exchange(Object mine, Backoff backoff) {
+        int index = ThreadLocalRandom.current().nextInt(backoff.range);
+        Offer waiting = arena.get(index);
+        if (waiting == null) {
+            // (1)放入自己的报价，等待相反的操作
+            Offer offer = new Offer(mine);
+            if (!arena.compareAndSet(index, null, offer)) {
+                return null;
+            }
+            for (int i = 0; i < backoff.waitSpins; i++) {
+                Object match = offer.match;
+                if (match != null) {
+                    backoff.onSuccess();
+                    return match;
+                }
+                spin(i);
+            }
+            if (arena.compareAndSet(index, offer, null)) {
+                // 超时，撤回报价
+                backoff.onTimeout();
+                return null;
+            }
+            // 撤回失败说明已经被对方取走，对方马上会写入match
+            Object match;
+            while ((match = offer.match) == null) {
+                Thread.yield();
+            }
+            backoff.onSuccess();
+            return match;
+        }
+        // (2)槽位中是相反的操作，取走报价并交换
+        if ((waiting.item == POP) != (mine == POP) && arena.compareAndSet(index, waiting, null)) {
+            waiting.match = mine;
+            eliminated.increment();
+            backoff.onSuccess();
+            return waiting.item;
+        }
+        // (3)相同的操作 或者 被其他线程抢先
+        return null;
+    }
+
+    private static void spin(int i) {
+        if ((i + 1) % SPINS_BEFORE_YIELD == 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 消除数组中的报价，取走报价的线程写入match
+     */
+    private static final class Offer {
+        final Object item;
+        volatile Object match;
+
+        Offer(Object item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * 每个线程自己的回退参数，只被所属线程访问
+     */
+    private static final class Backoff {
+        final int capacity;
+        // 使用消除数组的前range个槽位
+        int range = 1;
+        // 放入报价之后等待的自旋次数
+        int waitSpins = MIN_WAIT_SPINS;
+
+        Backoff(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void onSuccess() {
+            range = Math.min(range + 1, capacity);
+            waitSpins = Math.max(waitSpins >> 1, MIN_WAIT_SPINS);
+        }
+
+        void onTimeout() {
+            if (range > 1) {
+                range--;
+            } else {
+                waitSpins = Math.min(waitSpins << 1, MAX_WAIT_SPINS);
+            }
+        }
+    }
+}
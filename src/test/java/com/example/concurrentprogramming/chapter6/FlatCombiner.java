@@ -0,0 +1,134 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 平面合并(Flat Combining)执行器，可以包装任意线程不安全的数据结构
+ * 高并发下ReentrantLockList的大部分时间花在线程之间传递锁上，真正的 list.add 很快
+ * <p>
+ * (1)每个线程有一个自己的发布槽位(slot)，把要执行的操作写入槽位
+ * (2)抢到锁的线程成为合并者(combiner)，一次遍历所有槽位，在锁内依次执行所有待处理的操作，并把结果写回各自的槽位
+ * (3)没抢到锁的线程自旋等待自己槽位中的操作被执行完，期间再尝试成为合并者
+ * ---> 锁只在少数线程之间传递，被保护的数据结构一直在合并者的缓存中
+ *
+ * @author CZS
+ * @create 2026-10-19 13:40
+ **/
+public class FlatCombiner<S> {
+    // 合并者一次加锁内最多扫描的轮数
+    private static final int COMBINE_PASSES = 2;
+    // 自旋多少次之后让出CPU，单核机器上自旋没有意义，每次都让出
+    private static final int SPINS_BEFORE_YIELD = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 1;
+
+    // 被保护的线程不安全数据结构
+    private final S structure;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 发布列表，新的槽位CAS插入到表头，只有合并者会摘除失效的槽位
+    private final AtomicReference<Slot> head = new AtomicReference<>();
+    private final ThreadLocal<Slot> localSlot = ThreadLocal.withInitial(this::register);
+
+    public FlatCombiner(S structure) {
+        this.structure = structure;
+    }
+
+    /**
+     * 发布槽位
+     */
+    private static final class Slot {
+        final Thread owner = Thread.currentThread();
+        // 待执行的操作，非null表示有待处理的操作，由合并者执行后置为null
+        volatile Function<Object, Object> operation;
+        // result和failure在operation置为null之前写入，由volatile写保证可见性
+        Object result;
+        Throwable failure;
+        volatile Slot next;
+    }
+
+    /**
+     * 在合并者线程中对数据结构执行操作，并返回结果
+     *
+     * @param operation
+     * @param <R>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R apply(Function<? super S, ? extends R> operation) {
+        Slot slot = localSlot.get();
+        // (1)发布操作
+        slot.operation = (Function<Object, Object>) operation;
+
+        int spins = 0;
+        while (slot.operation != null) {
+            // (2)尝试成为合并者
+            if (lock.tryLock()) {
+                try {
+                    combine();
+                } finally {
+                    lock.unlock();
+                }
+            } else if (++spins % SPINS_BEFORE_YIELD == 0) {
+                // (3)等待合并者执行完自己的操作
+                Thread.yield();
+            }
+        }
+
+        Throwable failure = slot.failure;
+        R result = (R) slot.result;
+        slot.result = null;
+        slot.failure = null;
+        if (failure != null) {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new IllegalStateException(failure);
+        }
+        return result;
+    }
+
+    /**
+     * 合并者在锁内执行所有槽位中待处理的操作
+     */
+    private void combine() {
+        for (int pass = 0; pass < COMBINE_PASSES; pass++) {
+            boolean found = false;
+            Slot prev = null;
+            for (Slot slot = head.get(); slot != null; slot = slot.next) {
+                Function<Object, Object> operation = slot.operation;
+                if (operation != null) {
+                    found = true;
+                    try {
+                        slot.result = operation.apply(structure);
+                    } catch (Throwable t) {
+                        slot.failure = t;
+                    }
+                    // volatile写，发布结果
+                    slot.operation = null;
+                    prev = slot;
+                } else if (prev != null && !slot.owner.isAlive()) {
+                    // 摘除已死亡线程的槽位，表头由CAS维护，这里只修改非表头节点
+                    prev.next = slot.next;
+                } else {
+                    prev = slot;
+                }
+            }
+            if (!found) {
+                return;
+            }
+        }
+    }
+
+    private Slot register() {
+        Slot slot = new Slot();
+        Slot first;
+        do {
+            first = head.get();
+            slot.next = first;
+        } while (!head.compareAndSet(first, slot));
+        return slot;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于FlatCombiner的线程安全的List，与ReentrantLockList提供相同的操作
+ *
+ * @author CZS
+ * @create 2026-10-19 14:05
+ **/
+public class FlatCombiningList<E> {
+    // 线程不安全的List，只会在合并者线程中被访问
+    private final FlatCombiner<List<E>> combiner = new FlatCombiner<>(new ArrayList<>());
+
+    /**
+     * 添加元素
+     *
+     * @param e
+     */
+    public void add(E e) {
+        combiner.apply(list -> list.add(e));
+    }
+
+    /**
+     * 删除元素
+     *
+     * @param e
+     */
+    public void remove(E e) {
+        combiner.apply(list -> list.remove(e));
+    }
+
+    /**
+     * 获取元素
+     *
+     * @param index
+     * @return
+     */
+    public E get(int index) {
+        return combiner.apply(list -> list.get(index));
+    }
+
+    /**
+     * 元素个数
+     *
+     * @return
+     */
+    public int size() {
+        return combiner.apply(List::size);
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * 按key定向唤醒的等待队列
+ * notifyAll()/signalAll() 会唤醒所有等待线程，大部分线程醒来检查条件不满足又重新阻塞(惊群效应)
+ * <p>
+ * 这里每个等待线程带着 key 和 等待条件 进入对应key的FIFO队列，然后调用 LockSupport.park 阻塞自己(与FIFOMutex一样)
+ * 唤醒方修改共享状态之后调用 signal(key)，只遍历该key的队列，并且只 unpark 条件已经满足的线程
+ * <p>
+ * 避免丢失唤醒: 等待线程 先入队再检查条件，唤醒方 先修改状态再遍历队列
+ * ---> 要么等待线程入队后看到了新状态，要么唤醒方遍历时看到了等待线程
+ *
+ * @author CZS
+ * @create 2026-10-19 11:05
+ **/
+public class KeyedWaitQueue<K> {
+    private static final int WAITING = 0;
+    private static final int SIGNALLED = 1;
+    private static final int CANCELLED = 2;
+
+    private final ConcurrentHashMap<K, Queue<Node>> queues = new ConcurrentHashMap<>();
+    // park返回的次数，包括被唤醒、超时、中断、虚假唤醒之后继续等待的
+    private final LongAdder wakeups = new LongAdder();
+
+    /**
+     * 等待节点，status只能从WAITING变为SIGNALLED或CANCELLED一次，由CAS保证唤醒和超时/中断只有一方生效
+     */
+    private static final class Node {
+        final Thread thread = Thread.currentThread();
+        final BooleanSupplier condition;
+        final AtomicInteger status = new AtomicInteger(WAITING);
+
+        Node(BooleanSupplier condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * 阻塞直到condition满足，期间只会被signal(key)唤醒
+     *
+     * @param key
+     * @param condition
+     * @throws InterruptedException
+     */
+    public void await(K key, BooleanSupplier condition) throws InterruptedException {
+        await(key, condition, 0L);
+    }
+
+    /**
+     * 带超时的等待
+     *
+     * @param key
+     * @param condition
+     * @param timeout
+     * @param unit
+     * @return condition是否满足，超时返回false
+     * @throws InterruptedException
+     */
+    public boolean await(K key, BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        if (nanos <= 0L) {
+            return condition.getAsBoolean();
+        }
+        return await(key, condition, nanos);
+    }
+
+    /**
+     * @param nanosTimeout 0表示不超时
+     */
+    private boolean await(K key, BooleanSupplier condition, long nanosTimeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        // (1)条件已满足则直接返回，不入队
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        // (2)先入队
+        Node node = new Node(condition);
+        enqueue(key, node);
+        // (3)再检查一次条件，避免在(1)和(2)之间状态已被修改而错过唤醒
+        if (condition.getAsBoolean()) {
+            cancel(key, node);
+            return true;
+        }
+
+        final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+        while (node.status.get() == WAITING) {
+            if (nanosTimeout > 0L) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    // 超时，如果CAS失败说明刚好被唤醒
+                    if (cancel(key, node)) {
+                        return condition.getAsBoolean();
+                    }
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            wakeups.increment();
+            if (Thread.interrupted()) {
+                if (cancel(key, node)) {
+                    throw new InterruptedException();
+                }
+                // 已经被唤醒，保留中断标志给调用方
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 唤醒该key下 条件已满足 的第一个线程(FIFO)
+     *
+     * @param key
+     * @return 是否唤醒了线程
+     */
+    public boolean signal(K key) {
+        return signal(key, false) > 0;
+    }
+
+    /**
+     * 唤醒该key下 所有条件已满足 的线程，按入队顺序唤醒，条件不满足的线程保持阻塞
+     *
+     * @param key
+     * @return 唤醒的线程数
+     */
+    public int signalAll(K key) {
+        return signal(key, true);
+    }
+
+    /**
+     * 唤醒 key满足keyMatcher 且 条件已满足 的所有线程
+     *
+     * @param keyMatcher
+     * @return 唤醒的线程数
+     */
+    public int signalAll(Predicate<? super K> keyMatcher) {
+        int woken = 0;
+        for (K key : queues.keySet()) {
+            if (keyMatcher.test(key)) {
+                woken += signal(key, true);
+            }
+        }
+        return woken;
+    }
+
+    /**
+     * 等待线程从park返回的总次数，包括返回后条件仍不满足、继续等待的次数
+     * 与 wait() 每次返回都计数的 notifyAll 对比时使用
+     *
+     * @return
+     */
+    public long getWakeupCount() {
+        return wakeups.sum();
+    }
+
+    /**
+     * 当前阻塞在该key上的线程数(估计值)
+     *
+     * @param key
+     * @return
+     */
+    public int waiters(K key) {
+        Queue<Node> queue = queues.get(key);
+        return queue == null ? 0 : queue.size();
+    }
+
+    private int signal(K key, boolean all) {
+        Queue<Node> queue = queues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        int woken = 0;
+        for (Iterator<Node> it = queue.iterator(); it.hasNext(); ) {
+            Node node = it.next();
+            if (node.status.get() != WAITING) {
+                it.remove();
+                continue;
+            }
+            // 只唤醒条件已满足的线程
+            if (node.condition.getAsBoolean() && node.status.compareAndSet(WAITING, SIGNALLED)) {
+                it.remove();
+                LockSupport.unpark(node.thread);
+                woken++;
+                if (!all) {
+                    break;
+                }
+            }
+        }
+        removeIfEmpty(key);
+        return woken;
+    }
+
+    private void enqueue(K key, Node node) {
+        // 在compute中入队，与removeIfEmpty互斥，避免节点加入一个已经从map中移除的队列
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<>();
+            }
+            queue.add(node);
+            return queue;
+        });
+    }
+
+    private boolean cancel(K key, Node node) {
+        if (!node.status.compareAndSet(WAITING, CANCELLED)) {
+            return false;
+        }
+        Queue<Node> queue = queues.get(key);
+        if (queue != null) {
+            queue.remove(node);
+            removeIfEmpty(key);
+        }
+        return true;
+    }
+
+    private void removeIfEmpty(K key) {
+        queues.computeIfPresent(key, (k, queue) -> queue.isEmpty() ? null : queue);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("KeyedWaitQueue{");
+        for (Map.Entry<K, Queue<Node>> entry : queues.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue().size()).append(' ');
+        }
+        return sb.append('}').toString();
+    }
+}
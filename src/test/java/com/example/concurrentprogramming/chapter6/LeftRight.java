@@ -0,0 +1,120 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Left-Right 并发控制，可以包装任意线程不安全的数据结构
+ * ReentrantLockList.get 在写线程持有锁时会阻塞，读多写少且读延迟敏感时不合适
+ * <p>
+ * (1)维护两份相同的数据结构 left、right，读线程只读 leftRight 指向的那一份
+ * (2)读: 在当前版本的读指示器上登记 -> 读 -> 注销，固定步数，不加锁、不重试、不等待(wait-free)
+ * (3)写(写线程之间用锁互斥):
+ *    修改读线程没有在用的那一份 -> 切换 leftRight，新来的读线程读修改后的那一份
+ *    -> 切换版本，分别等待两个版本的读指示器清零(旧的读线程都离开了旧的那一份) -> 再修改旧的那一份
+ * ---> 写操作对两份各执行一次，必须是确定的(同样的输入得到同样的结果)
+ * <p>
+ * 读指示器按线程分散到多个计数器上(每个计数器独占一个缓存行)，读线程之间不竞争同一个计数器
+ *
+ * @author CZS
+ * @create 2026-10-20 04:00
+ **/
+public class LeftRight<S> {
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    // 每个计数器之间隔开的long个数，避免伪共享
+    private static final int PADDING = 16;
+    private static final int STRIPES = stripes();
+
+    private final S left;
+    private final S right;
+    // 读线程读哪一份
+    private volatile int leftRight = LEFT;
+    // 读线程登记在哪个版本的读指示器上
+    private volatile int versionIndex = 0;
+    // 两个版本的读指示器，每个版本 STRIPES 个计数器
+    private final AtomicLongArray[] readIndicators = {
+            new AtomicLongArray(STRIPES * PADDING), new AtomicLongArray(STRIPES * PADDING)};
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * @param left  初始状态相同的两份数据结构
+     * @param right
+     */
+    public LeftRight(S left, S right) {
+        if (left == null || right == null || left == right) {
+            throw new IllegalArgumentException("left and right must be two distinct instances");
+        }
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * 读操作，不阻塞、不重试，operation不能修改数据结构
+     */
+    public <R> R read(Function<? super S, ? extends R> operation) {
+        int version = versionIndex;
+        AtomicLongArray indicator = readIndicators[version];
+        int index = stripe();
+        indicator.incrementAndGet(index);
+        try {
+            return operation.apply(leftRight == LEFT ? left : right);
+        } finally {
+            indicator.decrementAndGet(index);
+        }
+    }
+
+    /**
+     * 写操作，对两份数据结构各执行一次
+     *
+     * @return 第一次执行的结果
+     */
+    public <R> R write(Function<? super S, ? extends R> operation) {
+        writeLock.lock();
+        try {
+            int reading = leftRight;
+            // (1)修改读线程没有在用的那一份
+            R result = operation.apply(reading == LEFT ? right : left);
+            // (2)新来的读线程读修改后的那一份
+            leftRight = reading == LEFT ? RIGHT : LEFT;
+            // (3)切换版本，等待切换之前登记的读线程全部离开
+            int previous = versionIndex;
+            int next = previous ^ 1;
+            waitEmpty(readIndicators[next]);
+            versionIndex = next;
+            waitEmpty(readIndicators[previous]);
+            // (4)旧的那一份已经没有读线程，修改它
+            operation.apply(reading == LEFT ? left : right);
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void waitEmpty(AtomicLongArray indicator) {
+        for (int i = 0; i < STRIPES; i++) {
+            int spins = 0;
+            while (indicator.get(i * PADDING) != 0) {
+                if (++spins % 64 == 0 || STRIPES == 1) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return (hash & (STRIPES - 1)) * PADDING;
+    }
+
+    private static int stripes() {
+        int n = Runtime.getRuntime().availableProcessors() * 2;
+        int stripes = 1;
+        while (stripes < n) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
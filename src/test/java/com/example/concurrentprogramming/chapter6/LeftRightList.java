@@ -0,0 +1,53 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于LeftRight的线程安全的List，与ReentrantLockList提供相同的操作
+ * get、size 不阻塞，add、remove 修改两份ArrayList
+ *
+ * @author CZS
+ * @create 2026-10-20 04:00
+ **/
+public class LeftRightList<E> {
+    // 两份线程不安全的List
+    private final LeftRight<List<E>> leftRight = new LeftRight<>(new ArrayList<>(), new ArrayList<>());
+
+    /**
+     * 添加元素
+     *
+     * @param e
+     */
+    public void add(E e) {
+        leftRight.write(list -> list.add(e));
+    }
+
+    /**
+     * 删除元素
+     *
+     * @param e
+     */
+    public void remove(E e) {
+        leftRight.write(list -> list.remove(e));
+    }
+
+    /**
+     * 获取元素
+     *
+     * @param index
+     * @return
+     */
+    public E get(int index) {
+        return leftRight.read(list -> list.get(index));
+    }
+
+    /**
+     * 元素个数
+     *
+     * @return
+     */
+    public int size() {
+        return leftRight.read(List::size);
+    }
+}
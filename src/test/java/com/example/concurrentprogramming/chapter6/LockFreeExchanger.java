@@ -0,0 +1,106 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 两个线程之间交换对象的交换器，只有一个槽位，靠CAS配对，不加锁
+ * <p>
+ * (1)槽位为空 ---> CAS放入自己的节点，先自旋再park，等待对方写入match
+ * (2)槽位中有对方的节点 ---> CAS取走节点，写入自己的值并唤醒对方，返回对方的值
+ * (3)超时 ---> CAS撤回节点；撤回失败说明已经被对方取走，等待对方写入match
+ *
+ * @author CZS
+ * @create 2026-10-20 03:30
+ **/
+public class LockFreeExchanger<V> {
+    // 单核机器上自旋没有意义，直接park
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+    private final AtomicReference<Node> slot = new AtomicReference<>();
+
+    /**
+     * 与另一个线程交换对象
+     *
+     * @param mine    交给对方的对象
+     * @param timeout
+     * @param unit
+     * @return 对方交过来的对象
+     * @throws InterruptedException 等待时被中断
+     * @throws TimeoutException     超时没有等到对方
+     */
+    @SuppressWarnings("unchecked")
+    public V exchange(V mine, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (mine == null) {
+            throw new NullPointerException();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Node waiting = slot.get();
+            if (waiting != null) {
+                // (2)对方已经在等待
+                if (slot.compareAndSet(waiting, null)) {
+                    waiting.match = mine;
+                    LockSupport.unpark(waiting.waiter);
+                    return (V) waiting.item;
+                }
+                continue;
+            }
+            // (1)放入自己的节点等待
+            Node node = new Node(mine);
+            if (!slot.compareAndSet(null, node)) {
+                continue;
+            }
+            Object match = await(node, deadline);
+            if (match != null) {
+                return (V) match;
+            }
+            if (!slot.compareAndSet(node, null)) {
+                // (3)已经被对方取走，对方马上会写入match
+                while ((match = node.match) == null) {
+                    Thread.yield();
+                }
+                return (V) match;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            throw new TimeoutException();
+        }
+    }
+
+    /**
+     * @return 对方的对象，超时或被中断返回null
+     */
+    private Object await(Node node, long deadline) {
+        for (int i = 0; i < SPINS; i++) {
+            Object match = node.match;
+            if (match != null) {
+                return match;
+            }
+        }
+        while (true) {
+            Object match = node.match;
+            if (match != null) {
+                return match;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private static final class Node {
+        final Object item;
+        final Thread waiter = Thread.currentThread();
+        volatile Object match;
+
+        Node(Object item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/**
+ * 基于跳表的无锁有序集合
+ * ReentrantLockList的 remove(e) 需要在全局锁内线性扫描，元素越多越慢
+ * <p>
+ * 每个节点有一座"塔"，每层的next指针是一个 AtomicMarkableReference(引用 + 删除标记)
+ * (1)add: 先CAS链入最底层(此时元素已可见)，再逐层向上CAS链入
+ * (2)remove: 先从上到下把节点每层的next打上删除标记(逻辑删除)，最底层标记成功的线程就是真正删除了该元素的线程
+ * ---> 被标记的节点由之后的 find 顺手CAS摘除(物理删除)
+ * (3)contains: 只读不写，跳过被标记的节点，wait-free
+ * <p>
+ * add/remove/contains 期望时间复杂度 O(log n)，迭代器是弱一致性的
+ *
+ * @author CZS
+ * @create 2026-10-19 15:20
+ **/
+public class LockFreeSkipListSet<E extends Comparable<? super E>> implements Iterable<E> {
+    // 最高层数，概率1/2晋升，足以支撑千万级别的元素
+    private static final int MAX_LEVEL = 24;
+
+    // 头哨兵(负无穷)和尾哨兵(正无穷)
+    private final Node<E> head = new Node<>(null, MAX_LEVEL);
+    private final Node<E> tail = new Node<>(null, MAX_LEVEL);
+
+    public LockFreeSkipListSet() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            head.next[level] = new AtomicMarkableReference<>(tail, false);
+            tail.next[level] = new AtomicMarkableReference<>(null, false);
+        }
+    }
+
+    private static final class Node<E> {
+        final E value;
+        final int topLevel;
+        final AtomicMarkableReference<Node<E>>[] next;
+
+        @SuppressWarnings("unchecked")
+        Node(E value, int topLevel) {
+            this.value = value;
+            this.topLevel = topLevel;
+            this.next = (AtomicMarkableReference<Node<E>>[]) new AtomicMarkableReference<?>[topLevel + 1];
+        }
+    }
+
+    /**
+     * 每一层的前驱/后继数组
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E>[] newNodeArray() {
+        return (Node<E>[]) new Node<?>[MAX_LEVEL + 1];
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param e
+     * @return 元素已存在返回false
+     */
+    public boolean add(E e) {
+        checkNotNull(e);
+        int topLevel = randomLevel();
+        Node<E>[] preds = newNodeArray();
+        Node<E>[] succs = newNodeArray();
+        boolean[] marked = {false};
+        while (true) {
+            if (find(e, preds, succs)) {
+                return false;
+            }
+            Node<E> newNode = new Node<>(e, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                newNode.next[level] = new AtomicMarkableReference<>(succs[level], false);
+            }
+            // (1)链入最底层，成功后元素即对其他线程可见
+            if (!preds[0].next[0].compareAndSet(succs[0], newNode, false, false)) {
+                continue;
+            }
+            // (2)逐层向上链入
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node<E> pred = preds[level];
+                    Node<E> succ = succs[level];
+                    Node<E> current = newNode.next[level].get(marked);
+                    if (marked[0]) {
+                        // 新节点已经被其他线程删除，不再继续链入
+                        return true;
+                    }
+                    if (current != succ && !newNode.next[level].compareAndSet(current, succ, false, false)) {
+                        continue;
+                    }
+                    if (pred.next[level].compareAndSet(succ, newNode, false, false)) {
+                        break;
+                    }
+                    // 前驱或后继发生了变化，重新查找
+                    find(e, preds, succs);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 删除元素
+     *
+     * @param e
+     * @return 元素不存在返回false
+     */
+    public boolean remove(E e) {
+        checkNotNull(e);
+        Node<E>[] preds = newNodeArray();
+        Node<E>[] succs = newNodeArray();
+        boolean[] marked = {false};
+        if (!find(e, preds, succs)) {
+            return false;
+        }
+        Node<E> victim = succs[0];
+        // (1)从上到下标记除最底层以外的每一层
+        for (int level = victim.topLevel; level >= 1; level--) {
+            Node<E> succ = victim.next[level].get(marked);
+            while (!marked[0]) {
+                victim.next[level].compareAndSet(succ, succ, false, true);
+                succ = victim.next[level].get(marked);
+            }
+        }
+        // (2)标记最底层，标记成功的线程才算删除了该元素
+        Node<E> succ = victim.next[0].get(marked);
+        while (true) {
+            boolean markedByMe = victim.next[0].compareAndSet(succ, succ, false, true);
+            succ = victim.next[0].get(marked);
+            if (markedByMe) {
+                // 物理摘除
+                find(e, preds, succs);
+                return true;
+            } else if (marked[0]) {
+                // 被其他线程删除了
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 是否包含元素，不修改任何指针
+     *
+     * @param e
+     * @return
+     */
+    public boolean contains(E e) {
+        checkNotNull(e);
+        Node<E> node = ceilingNode(e);
+        return node != tail && node.value.compareTo(e) == 0;
+    }
+
+    /**
+     * 元素个数，需要遍历最底层，O(n)，并发修改时只是一个估计值
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (E ignored : this) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 升序迭代所有元素
+     *
+     * @return
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new RangeIterator(head.next[0].getReference(), null);
+    }
+
+    /**
+     * 升序迭代 [fromInclusive, toExclusive) 范围内的元素，弱一致性
+     *
+     * @param fromInclusive
+     * @param toExclusive
+     * @return
+     */
+    public Iterable<E> range(E fromInclusive, E toExclusive) {
+        checkNotNull(fromInclusive);
+        checkNotNull(toExclusive);
+        return () -> new RangeIterator(ceilingNode(fromInclusive), toExclusive);
+    }
+
+    /**
+     * 查找e在每一层的前驱和后继，顺便摘除途经的被标记节点
+     *
+     * @return 最底层的后继是否就是e
+     */
+    private boolean find(E e, Node<E>[] preds, Node<E>[] succs) {
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node<E> pred = head;
+            Node<E> curr = null;
+            for (int level = MAX_LEVEL; level >= 0; level--) {
+                curr = pred.next[level].getReference();
+                while (true) {
+                    Node<E> succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        // curr已被逻辑删除，尝试摘除，失败说明pred发生了变化，从头重试
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = pred.next[level].getReference();
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (less(curr, e)) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr != tail && curr.value.compareTo(e) == 0;
+        }
+    }
+
+    /**
+     * 最底层第一个 >= e 且未被标记的节点，找不到返回tail
+     */
+    private Node<E> ceilingNode(E e) {
+        boolean[] marked = {false};
+        Node<E> pred = head;
+        Node<E> curr = null;
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            curr = pred.next[level].getReference();
+            while (true) {
+                Node<E> succ = curr.next[level].get(marked);
+                while (marked[0]) {
+                    // 只跳过，不摘除
+                    curr = succ;
+                    succ = curr.next[level].get(marked);
+                }
+                if (less(curr, e)) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return curr;
+    }
+
+    private boolean less(Node<E> node, E e) {
+        return node != tail && node.value.compareTo(e) < 0;
+    }
+
+    private static int randomLevel() {
+        return Math.min(Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt()), MAX_LEVEL);
+    }
+
+    private static void checkNotNull(Object e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+    }
+
+    /**
+     * 沿最底层遍历的迭代器，跳过被标记的节点，不抛出ConcurrentModificationException
+     */
+    private final class RangeIterator implements Iterator<E> {
+        private final E toExclusive;
+        private final boolean[] marked = {false};
+        private Node<E> next;
+
+        RangeIterator(Node<E> first, E toExclusive) {
+            this.toExclusive = toExclusive;
+            this.next = skipMarked(first);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != tail && (toExclusive == null || next.value.compareTo(toExclusive) < 0);
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = skipMarked(next.next[0].getReference());
+            return value;
+        }
+
+        private Node<E> skipMarked(Node<E> node) {
+            while (node != tail) {
+                Node<E> succ = node.next[0].get(marked);
+                if (!marked[0]) {
+                    return node;
+                }
+                node = succ;
+            }
+            return node;
+        }
+    }
+}
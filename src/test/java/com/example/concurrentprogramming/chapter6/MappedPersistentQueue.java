@@ -0,0 +1,550 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于内存映射文件的持久化队列
+ * Chapter6 的 QUEUE 在JVM退出时会丢失所有还没消费的元素，这里把元素追加写入内存映射的段文件
+ * <p>
+ * (1)存储: 目录下若干个固定大小的段文件，文件名为该段的起始逻辑偏移量；记录格式为 [int 长度][内容]，按4字节对齐
+ * ---> 先写内容再写长度，JVM在写到一半时退出，长度仍为0，恢复时会被忽略(写长度之前会把下一条记录的长度位置清0)
+ * ---> 当前段剩余空间不够时写入滚动标记(-1)，新建下一个段
+ * (2)生产者: 加锁追加，直接写入映射内存(没有用户态缓冲区和write系统调用)，写完后更新volatile的已发布位置
+ * (3)消费者: 每个消费者有自己的读取位置，只读取已发布位置之前的记录，commit() 时把位置持久化到自己的偏移量文件
+ * (4)刷盘策略: NONE(交给操作系统)、PERIODIC(后台线程定期force)、PER_BATCH(每次追加/每批追加之后force)
+ * ---> 只要操作系统没有崩溃，即使JVM被kill，写入映射内存的数据也在页缓存中，不会丢失
+ * (5)回收: 所有消费者都已提交越过的段文件可以被删除
+ * (6)恢复: 重新打开目录时，扫描最后一个段找到写入位置，消费者从各自已提交的位置继续
+ *
+ * @author CZS
+ * @create 2026-10-19 19:30
+ **/
+public class MappedPersistentQueue implements Closeable {
+    public enum SyncPolicy {
+        /**
+         * 不主动刷盘，由操作系统决定
+         */
+        NONE,
+        /**
+         * 后台线程定期刷盘
+         */
+        PERIODIC,
+        /**
+         * 每次append/appendBatch之后刷盘，消费者每次commit之后刷盘
+         */
+        PER_BATCH
+    }
+
+    /**
+     * 消费者原地读取一条记录: buffer中 [offset, offset + length) 为记录内容，不能修改buffer的position/limit
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(ByteBuffer buffer, int offset, int length);
+    }
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ROLL_MARKER = -1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    private final File directory;
+    private final int segmentSize;
+    private final SyncPolicy syncPolicy;
+
+    // 起始逻辑偏移量 -> 段
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Consumer> consumers = new ConcurrentHashMap<>();
+
+    // 追加锁，以下三个字段只在持有锁时修改
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile Segment writeSegment;
+    private ByteBuffer writeBuffer;
+    private long writePosition;
+
+    // 已发布(消费者可见)的逻辑位置
+    private final AtomicLong publishedPosition = new AtomicLong();
+
+    private final ScheduledExecutorService syncer;
+    private volatile boolean closed;
+
+    /**
+     * @param directory          存放段文件和偏移量文件的目录，已有数据时恢复
+     * @param segmentSize        段文件大小(字节)，4的倍数
+     * @param syncPolicy         刷盘策略
+     * @param syncIntervalMillis PERIODIC策略的刷盘间隔
+     * @throws IOException
+     */
+    public MappedPersistentQueue(File directory, int segmentSize, SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
+        if (segmentSize < 64 || (segmentSize & 3) != 0) {
+            throw new IllegalArgumentException("segmentSize must be a multiple of 4 and >= 64: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncPolicy = syncPolicy;
+        recover();
+        if (syncPolicy == SyncPolicy.PERIODIC) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mapped-queue-syncer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param data
+     * @return 记录的逻辑偏移量
+     */
+    public long append(byte[] data) {
+        return append(data, 0, data.length);
+    }
+
+    public long append(byte[] data, int offset, int length) {
+        checkLength(length);
+        appendLock.lock();
+        try {
+            ensureOpen();
+            long position = reserve(length);
+            writeBuffer.position(position(position) + HEADER_SIZE);
+            writeBuffer.put(data, offset, length);
+            finishRecord(position, length);
+            afterBatch();
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 追加一条记录，内容为src中剩余的字节
+     *
+     * @param src
+     * @return 记录的逻辑偏移量
+     */
+    public long append(ByteBuffer src) {
+        int length = src.remaining();
+        checkLength(length);
+        appendLock.lock();
+        try {
+            ensureOpen();
+            long position = reserve(length);
+            writeBuffer.position(position(position) + HEADER_SIZE);
+            writeBuffer.put(src);
+            finishRecord(position, length);
+            afterBatch();
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 批量追加，只加一次锁、发布一次、(PER_BATCH时)刷盘一次
+     *
+     * @param batch
+     * @return 最后一条记录的逻辑偏移量
+     */
+    public long appendBatch(List<byte[]> batch) {
+        for (byte[] data : batch) {
+            checkLength(data.length);
+        }
+        appendLock.lock();
+        try {
+            ensureOpen();
+            long position = -1;
+            for (byte[] data : batch) {
+                position = reserve(data.length);
+                writeBuffer.position(position(position) + HEADER_SIZE);
+                writeBuffer.put(data);
+                finishRecord(position, data.length);
+            }
+            afterBatch();
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 获取(不存在则创建)指定名称的消费者，消费者从上次提交的位置开始读取
+     * 同一个消费者只能由一个线程使用
+     *
+     * @param name
+     * @return
+     */
+    public Consumer consumer(String name) {
+        ensureOpen();
+        return consumers.computeIfAbsent(name, n -> {
+            try {
+                return new Consumer(n);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 删除所有消费者都已提交越过的段文件(至少保留当前写入的段)
+     * 没有消费者时不删除
+     *
+     * @return 删除的段文件数
+     */
+    public int reclaim() {
+        if (consumers.isEmpty()) {
+            return 0;
+        }
+        long minCommitted = Long.MAX_VALUE;
+        for (Consumer consumer : consumers.values()) {
+            minCommitted = Math.min(minCommitted, consumer.committed);
+        }
+        int reclaimed = 0;
+        Segment current = writeSegment;
+        for (Segment segment : segments.values()) {
+            if (segment == current || segment.base + segmentSize > minCommitted) {
+                break;
+            }
+            segments.remove(segment.base);
+            // Java 8无法主动解除映射，映射在MappedByteBuffer被回收时解除；Linux下删除仍被映射的文件是安全的
+            if (segment.file.delete()) {
+                reclaimed++;
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 已发布的逻辑位置(下一条记录的写入位置)
+     *
+     * @return
+     */
+    public long getPublishedPosition() {
+        return publishedPosition.get();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 把当前写入段和所有消费者偏移量刷到磁盘
+     */
+    public void sync() {
+        Segment segment = writeSegment;
+        if (segment != null) {
+            segment.buffer.force();
+        }
+        for (Consumer consumer : consumers.values()) {
+            consumer.offsetBuffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (syncer != null) {
+                syncer.shutdown();
+            }
+            sync();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 为长度为length的记录预留位置，当前段剩余空间不够时滚动到下一个段(持有锁时调用)
+     *
+     * @return 记录的逻辑偏移量
+     */
+    private long reserve(int length) {
+        int recordSize = align(HEADER_SIZE + length);
+        int position = (int) (writePosition - writeSegment.base);
+        if (position + recordSize > segmentSize) {
+            roll(position);
+        }
+        return writePosition;
+    }
+
+    /**
+     * 内容写完之后，先把下一条记录的长度位置清0，最后写本条记录的长度
+     * ---> 保证最后一条完整记录之后总是0，恢复时不会把之前写了一半的残留数据当成记录
+     */
+    private void finishRecord(long position, int length) {
+        int offset = position(position);
+        int next = offset + align(HEADER_SIZE + length);
+        if (next + HEADER_SIZE <= segmentSize) {
+            writeBuffer.putInt(next, 0);
+        }
+        writeBuffer.putInt(offset, length);
+        writePosition = position + align(HEADER_SIZE + length);
+    }
+
+    private void afterBatch() {
+        if (syncPolicy == SyncPolicy.PER_BATCH) {
+            writeSegment.buffer.force();
+        }
+        publishedPosition.set(writePosition);
+    }
+
+    /**
+     * 写入滚动标记，创建下一个段(持有锁时调用)
+     */
+    private void roll(int position) {
+        // position按4字节对齐，小于segmentSize时至少还能写下一个int
+        if (position < segmentSize) {
+            writeBuffer.putInt(position, ROLL_MARKER);
+        }
+        if (syncPolicy != SyncPolicy.NONE) {
+            writeSegment.buffer.force();
+        }
+        long nextBase = writeSegment.base + segmentSize;
+        try {
+            Segment next = new Segment(segmentFile(nextBase), nextBase, segmentSize, false);
+            segments.put(nextBase, next);
+            writeSegment = next;
+            writeBuffer = next.buffer.duplicate();
+            writePosition = nextBase;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot create segment " + nextBase, e);
+        }
+    }
+
+    /**
+     * 加载已有段文件，扫描最后一个段找到写入位置，加载已有的消费者
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(base, new Segment(file, base, segmentSize, true));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, new Segment(segmentFile(0L), 0L, segmentSize, false));
+        }
+
+        Segment last = segments.lastEntry().getValue();
+        ByteBuffer buffer = last.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length == ROLL_MARKER) {
+                // 写完滚动标记但还没来得及创建下一个段，下一次追加时会滚动
+                position = segmentSize;
+                break;
+            }
+            if (length <= 0 || position + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            position += align(HEADER_SIZE + length);
+        }
+
+        writeSegment = last;
+        writeBuffer = last.buffer.duplicate();
+        writePosition = last.base + position;
+        publishedPosition.set(writePosition);
+
+        // 加载已有的消费者，回收段文件时要考虑它们的提交位置
+        File[] offsetFiles = directory.listFiles((dir, name) -> name.endsWith(OFFSET_SUFFIX));
+        if (offsetFiles != null) {
+            for (File file : offsetFiles) {
+                String name = file.getName();
+                name = name.substring(0, name.length() - OFFSET_SUFFIX.length());
+                consumers.put(name, new Consumer(name));
+            }
+        }
+    }
+
+    private File segmentFile(long base) {
+        return new File(directory, String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private int position(long logicalPosition) {
+        return (int) (logicalPosition - writeSegment.base);
+    }
+
+    private void checkLength(int length) {
+        if (length <= 0 || align(HEADER_SIZE + length) > segmentSize) {
+            throw new IllegalArgumentException("record length must be in (0, " + (segmentSize - HEADER_SIZE) + "]: " + length);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("queue closed");
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    /**
+     * 一个段文件，创建后立即映射整个文件
+     * 段的逻辑位置按segmentSize计算，打开已有的段文件时长度必须等于segmentSize，
+     * 否则说明用不同的segmentSize重新打开了目录，直接拒绝(setLength会截断或者扩展已有的数据)
+     */
+    private static final class Segment {
+        final long base;
+        final File file;
+        final MappedByteBuffer buffer;
+
+        /**
+         * @param existing 是否打开已有的段文件
+         */
+        Segment(File file, long base, int size, boolean existing) throws IOException {
+            this.base = base;
+            this.file = file;
+            // 映射建立之后关闭文件也不影响映射
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                long length = raf.length();
+                // 长度为0: 创建文件之后、设置长度之前崩溃，还没有写入过，按新段处理
+                if (existing && length != 0 && length != size) {
+                    throw new IOException("segment " + file + " has length " + length
+                            + ", expected segmentSize " + size + ", reopen with the segmentSize it was created with");
+                }
+                if (length != size) {
+                    raf.setLength(size);
+                }
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+    }
+
+    /**
+     * 消费者，记录自己的读取位置，commit()时持久化
+     */
+    public final class Consumer {
+        private final String name;
+        // 8字节的偏移量文件
+        private final MappedByteBuffer offsetBuffer;
+        // 已提交的位置，reclaim时读取
+        private volatile long committed;
+        // 以下字段只有消费者线程访问
+        private long position;
+        private Segment segment;
+        private ByteBuffer readBuffer;
+
+        private Consumer(String name) throws IOException {
+            this.name = name;
+            try (RandomAccessFile raf = new RandomAccessFile(new File(directory, name + OFFSET_SUFFIX), "rw")) {
+                raf.setLength(8);
+                this.offsetBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            }
+            // 已提交位置所在的段已被回收时，从最早的段开始
+            this.position = Math.max(offsetBuffer.getLong(0), segments.firstKey());
+            this.committed = position;
+        }
+
+        /**
+         * 原地读取已发布的记录
+         *
+         * @param handler
+         * @param maxRecords 这次最多读取的条数
+         * @return 读取的条数
+         */
+        public int poll(RecordHandler handler, int maxRecords) {
+            long published = publishedPosition.get();
+            int count = 0;
+            while (count < maxRecords && position < published) {
+                int offset = locate();
+                if (offset < 0) {
+                    continue;
+                }
+                int length = readBuffer.getInt(offset);
+                handler.onRecord(readBuffer, offset + HEADER_SIZE, length);
+                position += align(HEADER_SIZE + length);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * 读取一条记录并复制到新数组
+         *
+         * @return 没有已发布的记录时返回null
+         */
+        public byte[] poll() {
+            long published = publishedPosition.get();
+            while (position < published) {
+                int offset = locate();
+                if (offset < 0) {
+                    continue;
+                }
+                int length = readBuffer.getInt(offset);
+                byte[] data = new byte[length];
+                readBuffer.position(offset + HEADER_SIZE);
+                readBuffer.get(data);
+                position += align(HEADER_SIZE + length);
+                return data;
+            }
+            return null;
+        }
+
+        /**
+         * 持久化当前读取位置，重启后从这里继续
+         */
+        public void commit() {
+            offsetBuffer.putLong(0, position);
+            committed = position;
+            if (syncPolicy == SyncPolicy.PER_BATCH) {
+                offsetBuffer.force();
+            }
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 定位当前位置在段内的偏移量，遇到段尾或滚动标记时跳到下一个段并返回-1
+         */
+        private int locate() {
+            if (segment == null || position < segment.base || position >= segment.base + segmentSize) {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+                segment = entry.getValue();
+                readBuffer = segment.buffer.duplicate();
+            }
+            int offset = (int) (position - segment.base);
+            if (offset + HEADER_SIZE > segmentSize || readBuffer.getInt(offset) == ROLL_MARKER) {
+                position = segment.base + segmentSize;
+                return -1;
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于堆外内存(直接ByteBuffer)的定长记录环形缓冲区，单消费者，支持单生产者和多生产者
+ * Chapter6 的生产者消费者通过 LinkedBlockingQueue 传递String，每条消息都会创建String和队列节点，消息量大时产生大量垃圾
+ * <p>
+ * (1)生产者: claim() 申请一个序号(槽位) -> 通过 putXxx 在槽位中原地写入各个字段 -> publish(序号) 发布
+ * (2)消费者: poll(handler) 直接把 缓冲区 和 槽位偏移量 交给handler，在原地读取字段，不创建任何对象
+ * (3)序号一直递增，槽位下标 = 序号 & (容量 - 1)，生产者不能超过消费者一整圈
+ * <p>
+ * 可见性: 字段写入之后再 lazySet 发布序号(有序写)，消费者 volatile读 到发布的序号之后，一定能看到之前写入的字段
+ *
+ * @author chenzhisheng
+ * @date 2026/10/19 18:20
+ **/
+public class OffHeapRingBuffer {
+    public enum ProducerType {
+        /**
+         * 只有一个生产者线程，申请序号不需要CAS
+         */
+        SINGLE,
+        /**
+         * 多个生产者线程，CAS申请序号，每个槽位单独标记是否已发布
+         */
+        MULTI
+    }
+
+    /**
+     * 消费者处理一条记录，通过 buffer.getXxx(offset + 字段偏移) 原地读取，不能修改buffer的position/limit
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(ByteBuffer buffer, int offset, long sequence);
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+    private final int recordSize;
+    private final ProducerType producerType;
+
+    // 多生产者: 已申请到的最大序号
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+    // 单生产者: 已申请到的最大序号，只有生产者线程访问
+    private long singleClaimSequence = -1;
+    // 单生产者: 已发布的最大序号
+    private final AtomicLong publishedSequence = new AtomicLong(-1);
+    // 多生产者: 每个槽位最近一次发布时的圈数(序号 / 容量)
+    private final AtomicIntegerArray publishedRounds;
+    // 消费者已消费的最大序号
+    private final AtomicLong consumerSequence = new AtomicLong(-1);
+
+    /**
+     * @param capacity     槽位数，必须是2的幂
+     * @param recordSize   每条记录的字节数
+     * @param producerType 单生产者或多生产者
+     */
+    public OffHeapRingBuffer(int capacity, int recordSize, ProducerType producerType) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        if (recordSize <= 0 || (long) capacity * recordSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("illegal recordSize: " + recordSize);
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity * recordSize).order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.recordSize = recordSize;
+        this.producerType = producerType;
+        if (producerType == ProducerType.MULTI) {
+            publishedRounds = new AtomicIntegerArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                publishedRounds.set(i, -1);
+            }
+        } else {
+            publishedRounds = null;
+        }
+    }
+
+    /**
+     * 申请一个槽位，缓冲区满时让出CPU等待消费者
+     *
+     * @return 序号
+     */
+    public long claim() {
+        long next;
+        if (producerType == ProducerType.SINGLE) {
+            next = ++singleClaimSequence;
+        } else {
+            next = claimSequence.incrementAndGet();
+        }
+        // 不能覆盖消费者还没有读取的槽位
+        while (next - capacity > consumerSequence.get()) {
+            Thread.yield();
+        }
+        return next;
+    }
+
+    /**
+     * 尝试申请一个槽位，缓冲区满时立即返回
+     *
+     * @return 序号，缓冲区满时返回-1
+     */
+    public long tryClaim() {
+        if (producerType == ProducerType.SINGLE) {
+            long next = singleClaimSequence + 1;
+            if (next - capacity > consumerSequence.get()) {
+                return -1;
+            }
+            singleClaimSequence = next;
+            return next;
+        }
+        while (true) {
+            long current = claimSequence.get();
+            long next = current + 1;
+            if (next - capacity > consumerSequence.get()) {
+                return -1;
+            }
+            if (claimSequence.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 发布已经写好的槽位，之后消费者就可以读取了
+     *
+     * @param sequence
+     */
+    public void publish(long sequence) {
+        if (producerType == ProducerType.SINGLE) {
+            publishedSequence.lazySet(sequence);
+        } else {
+            publishedRounds.lazySet(index(sequence), round(sequence));
+        }
+    }
+
+    /**
+     * 消费已发布的记录(只能由一个消费者线程调用)
+     *
+     * @param handler
+     * @param maxRecords 这次最多消费的条数
+     * @return 消费的条数
+     */
+    public int poll(RecordHandler handler, int maxRecords) {
+        long next = consumerSequence.get() + 1;
+        long available = highestPublished(next, next + maxRecords - 1);
+        for (long sequence = next; sequence <= available; sequence++) {
+            handler.onRecord(buffer, offset(sequence), sequence);
+        }
+        if (available >= next) {
+            // 消费完之后才释放槽位给生产者
+            consumerSequence.lazySet(available);
+        }
+        return (int) (available - next + 1);
+    }
+
+    public void putLong(long sequence, int fieldOffset, long value) {
+        buffer.putLong(offset(sequence) + fieldOffset, value);
+    }
+
+    public void putInt(long sequence, int fieldOffset, int value) {
+        buffer.putInt(offset(sequence) + fieldOffset, value);
+    }
+
+    public void putDouble(long sequence, int fieldOffset, double value) {
+        buffer.putDouble(offset(sequence) + fieldOffset, value);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * 已发布但还没被消费的记录数(估计值)
+     *
+     * @return
+     */
+    public long size() {
+        long produced = producerType == ProducerType.SINGLE ? publishedSequence.get() : claimSequence.get();
+        return Math.max(0, produced - consumerSequence.get());
+    }
+
+    /**
+     * [from, to] 中从from开始连续已发布的最大序号，from本身没有发布时返回from-1
+     */
+    private long highestPublished(long from, long to) {
+        if (producerType == ProducerType.SINGLE) {
+            return Math.min(publishedSequence.get(), to);
+        }
+        for (long sequence = from; sequence <= to; sequence++) {
+            if (publishedRounds.get(index(sequence)) != round(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return to;
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    private int round(long sequence) {
+        return (int) (sequence >>> indexShift);
+    }
+
+    private int offset(long sequence) {
+        return index(sequence) * recordSize;
+    }
+}
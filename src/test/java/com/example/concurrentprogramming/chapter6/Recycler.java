@@ -0,0 +1,248 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 基于线程本地栈的对象回收池
+ * 生产者/消费者每传递一个元素都新建一个对象，高峰期分配速率高，年轻代GC频繁
+ * <p>
+ * (1)每个线程通过ThreadLocal持有自己的栈(与Chapter1中ThreadLocal的用法一样，每个线程一份，互不干扰)
+ *    acquire 从本线程的栈中弹出，栈为空才新建对象；本线程 recycle 直接压回本线程的栈，不需要同步
+ * (2)跨线程归还: 对象在A线程取出，在B线程归还(例如生产者取、消费者还)
+ *    ---> 归还到A线程栈的交接队列(无锁，用对象自带的next字段串成链表，CAS压入，不额外分配节点)
+ *    ---> A线程本地栈为空时一次取走整个交接队列
+ * (3)每个线程的栈最多保留maxPerThread个对象，多出来的丢弃交给GC；
+ *    交接队列中只有该线程自己创建的对象，不会超过它创建过的个数，取走时超过容量的同样丢弃
+ * 热路径上不做多余的原子操作: 归还时一次CAS检查状态，跨线程归还再加一次CAS压入交接队列，统计在取走交接队列时批量累加
+ * (4)栈只弱引用所属线程，线程结束之后归还给它的对象直接丢弃，栈中的对象随ThreadLocal一起被回收；
+ *    线程池中长期存活的线程可以调用 releaseCurrentThread() 主动释放
+ * <p>
+ * 对象必须在归还之后不再使用，重复归还会抛出IllegalStateException(状态用CAS修改，并发的重复归还也只有一次成功)
+ *
+ * @author CZS
+ * @create 2026-10-20 05:00
+ **/
+public class Recycler<T> {
+    private final Function<Handle<T>, ? extends T> factory;
+    private final int maxPerThread;
+    private final ThreadLocal<Stack<T>> localStack;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder recycledForeign = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param factory      栈为空时新建对象，参数是对象对应的句柄，对象可以保存它以便之后归还(不需要每次取出时再设置)
+     * @param maxPerThread 每个线程最多保留的对象个数
+     */
+    public Recycler(Function<Handle<T>, ? extends T> factory, int maxPerThread) {
+        if (factory == null) {
+            throw new NullPointerException();
+        }
+        if (maxPerThread <= 0) {
+            throw new IllegalArgumentException("maxPerThread must be positive: " + maxPerThread);
+        }
+        this.factory = factory;
+        this.maxPerThread = maxPerThread;
+        this.localStack = ThreadLocal.withInitial(() -> new Stack<>(this));
+    }
+
+    /**
+     * 取出一个对象，优先复用本线程栈中的
+     */
+    public Handle<T> acquire() {
+        Stack<T> stack = localStack.get();
+        Handle<T> handle = stack.pop();
+        if (handle == null) {
+            created.increment();
+            handle = new Handle<>(stack);
+            handle.value = factory.apply(handle);
+        }
+        Handle.STATE.lazySet(handle, Handle.IN_USE);
+        return handle;
+    }
+
+    /**
+     * 丢弃当前线程栈中的对象并删除ThreadLocal，之后归还给当前线程的对象会被丢弃
+     */
+    public void releaseCurrentThread() {
+        Stack<T> stack = localStack.get();
+        stack.release();
+        localStack.remove();
+    }
+
+    /**
+     * 新建的对象个数
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * 其他线程通过交接队列归还、并且已经被所属线程取走的个数
+     */
+    public long getRecycledForeignCount() {
+        return recycledForeign.sum();
+    }
+
+    /**
+     * 超过容量或者所属线程已经结束而丢弃的次数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 池中对象的句柄，通过 get() 访问对象，用完调用 recycle()
+     */
+    public static final class Handle<T> {
+        static final int AVAILABLE = 0;
+        static final int IN_USE = 1;
+        private static final AtomicIntegerFieldUpdater<Handle<?>> STATE = newStateUpdater();
+
+        private final Stack<T> stack;
+        private T value;
+        private volatile int state;
+        // 交接队列中的下一个
+        private Handle<T> next;
+
+        Handle(Stack<T> stack) {
+            this.stack = stack;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static AtomicIntegerFieldUpdater<Handle<?>> newStateUpdater() {
+            AtomicIntegerFieldUpdater<?> updater = AtomicIntegerFieldUpdater.newUpdater(Handle.class, "state");
+            return (AtomicIntegerFieldUpdater<Handle<?>>) updater;
+        }
+
+        public T get() {
+            return value;
+        }
+
+        /**
+         * 归还，可以在任意线程中调用
+         */
+        public void recycle() {
+            if (!STATE.compareAndSet(this, IN_USE, AVAILABLE)) {
+                throw new IllegalStateException("recycled twice");
+            }
+            stack.push(this);
+        }
+    }
+
+    /**
+     * 每个线程一个的栈，本地数组只由所属线程访问，交接队列由其他线程压入
+     */
+    private static final class Stack<T> {
+        private final Recycler<T> recycler;
+        // 弱引用所属线程，对象中引用的栈不会让线程无法被回收
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private Handle<?>[] elements;
+        private int size;
+        // 其他线程归还的对象，无锁链表
+        private final AtomicReference<Handle<T>> foreign = new AtomicReference<>();
+        private volatile boolean released;
+
+        Stack(Recycler<T> recycler) {
+            this.recycler = recycler;
+            this.elements = new Handle<?>[Math.min(recycler.maxPerThread, 256)];
+        }
+
+        @SuppressWarnings("unchecked")
+        Handle<T> pop() {
+            if (size == 0 && !drainForeign()) {
+                return null;
+            }
+            Handle<T> handle = (Handle<T>) elements[--size];
+            elements[size] = null;
+            return handle;
+        }
+
+        void push(Handle<T> handle) {
+            Thread thread = owner.get();
+            if (thread == Thread.currentThread()) {
+                pushLocal(handle);
+            } else {
+                pushForeign(handle, thread);
+            }
+        }
+
+        private void pushLocal(Handle<T> handle) {
+            if (released || (size == elements.length && !grow())) {
+                recycler.dropped.increment();
+                return;
+            }
+            elements[size++] = handle;
+        }
+
+        private void pushForeign(Handle<T> handle, Thread thread) {
+            // isAlive()是native调用，只在交接队列为空(所属线程上次取走之后的第一次归还)时检查
+            if (thread == null || released || (foreign.get() == null && !thread.isAlive())) {
+                // 所属线程已经结束，交给GC，并释放交接队列中还引用着的对象
+                foreign.set(null);
+                recycler.dropped.increment();
+                return;
+            }
+            while (true) {
+                Handle<T> head = foreign.get();
+                handle.next = head;
+                if (foreign.compareAndSet(head, handle)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 一次取走整个交接队列放入本地数组
+         *
+         * @return 取到了对象
+         */
+        private boolean drainForeign() {
+            Handle<T> head = foreign.getAndSet(null);
+            if (head == null) {
+                return false;
+            }
+            int moved = 0;
+            while (head != null) {
+                Handle<T> next = head.next;
+                head.next = null;
+                moved++;
+                if (size < elements.length || grow()) {
+                    elements[size++] = head;
+                } else {
+                    recycler.dropped.increment();
+                }
+                head = next;
+            }
+            recycler.recycledForeign.add(moved);
+            return size > 0;
+        }
+
+        /**
+         * 本地数组按需扩容，不超过maxPerThread
+         */
+        private boolean grow() {
+            if (elements.length == recycler.maxPerThread) {
+                return false;
+            }
+            Handle<?>[] grown = new Handle<?>[Math.min(elements.length << 1, recycler.maxPerThread)];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+            return true;
+        }
+
+        void release() {
+            released = true;
+            for (int i = 0; i < size; i++) {
+                elements[i] = null;
+            }
+            size = 0;
+            foreign.set(null);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于ReentrantLock的线程安全的栈，与ReentrantLockList相同的写法
+ *
+ * @author CZS
+ * @create 2026-10-20 03:00
+ **/
+public class ReentrantLockStack<E> {
+    // 线程不安全的栈
+    private final Deque<E> stack = new ArrayDeque<>();
+    // 独占锁
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 入栈
+     *
+     * @param e
+     */
+    public void push(E e) {
+        lock.lock();
+        try {
+            stack.push(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 出栈
+     *
+     * @return 栈为空时返回null
+     */
+    public E pop() {
+        lock.lock();
+        try {
+            return stack.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
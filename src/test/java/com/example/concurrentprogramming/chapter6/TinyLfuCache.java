@@ -0,0 +1,659 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 读不加锁的有界并发缓存，淘汰策略为 W-TinyLFU
+ * <p>
+ * (1)数据存放在ConcurrentHashMap中，读操作只查map，再把节点记录到按线程分段的无锁环形缓冲区(满了直接丢弃，只是少记一次访问)
+ * (2)写操作修改map之后，把"加入/更新/删除"任务放入写缓冲队列(不能丢弃)
+ * (3)维护步骤在一把 NoReentrantLock 下批量回放两个缓冲区: 更新LRU链表和频率草图、按写入时间过期、按容量淘汰
+ * ---> 读写线程只在读缓冲区快满或者写任务积攒够一批时 tryLock 顺手执行维护，拿不到锁就直接返回，不会阻塞在锁上
+ * <p>
+ * 淘汰: 新条目先进入窗口LRU(1%)，从窗口挤出后进入主区的试用段，主区是分段LRU(试用段 + 保护段80%)
+ * 主区满时，用 Count-Min 频率草图比较 候选者(刚从窗口挤出的) 与 受害者(试用段最久未访问的) 的访问频率，频率低的被淘汰
+ * ---> 一次性扫描的冷数据不会把热点数据挤出去
+ * <p>
+ * get(key, loader) 未命中时先加载再放入，多个线程可能同时加载同一个key，最后一次放入的值生效
+ *
+ * @author CZS
+ * @create 2026-10-20 00:10
+ **/
+public class TinyLfuCache<K, V> {
+    // 节点所在的链表
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(4 * Runtime.getRuntime().availableProcessors());
+    // 写缓冲积攒到该数量再批量维护，条目数会短暂超出上限最多这么多
+    private static final int WRITE_BATCH_SIZE = 16;
+    // 写缓冲任务积压超过该值时，写线程阻塞获取锁执行维护(反压)
+    private static final int WRITE_BUFFER_MAX_PENDING = 1024;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ReadBuffer<K, V>[] readBuffers;
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingWrites = new AtomicLong();
+    private final NoReentrantLock evictionLock = new NoReentrantLock();
+
+    private final long maximumSize;
+    private final long expireAfterWriteNanos;
+
+    // 以下字段只在持有 evictionLock 时访问
+    private final FrequencySketch sketch;
+    private final NodeDeque<K, V> window = new NodeDeque<>(false);
+    private final NodeDeque<K, V> probation = new NodeDeque<>(false);
+    private final NodeDeque<K, V> protectedDeque = new NodeDeque<>(false);
+    private final NodeDeque<K, V> writeOrder = new NodeDeque<>(true);
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize      最大条目数
+     * @param expireAfterWrite 写入之后多久过期，<=0 表示不过期
+     * @param unit             expireAfterWrite的单位
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = expireAfterWrite <= 0 ? Long.MAX_VALUE : unit.toNanos(expireAfterWrite);
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (long) ((maximumSize - windowMaximum) * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+        this.readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[READ_BUFFER_STRIPES];
+        for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+    }
+
+    public TinyLfuCache(long maximumSize) {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 不加锁读，已过期的条目视为不存在
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (isExpired(node, System.nanoTime())) {
+            misses.increment();
+            // 过期条目由维护步骤删除
+            tryMaintenance();
+            return null;
+        }
+        hits.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * 未命中时用loader加载并放入，loader返回null时不放入
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        value = loader.apply(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        long now = System.nanoTime();
+        // compute 与淘汰时的 computeIfPresent 对同一个key互斥，已淘汰(retired)的节点不会被复用
+        Node<K, V>[] added = newNodeHolder();
+        Node<K, V> node = data.compute(key, (k, existing) -> {
+            if (existing == null || existing.retired) {
+                Node<K, V> created = new Node<>(k, value, now);
+                added[0] = created;
+                return created;
+            }
+            existing.value = value;
+            existing.writeTime = now;
+            return existing;
+        });
+        if (added[0] != null) {
+            afterWrite(() -> onAdd(node));
+        } else {
+            afterWrite(() -> onUpdate(node));
+        }
+    }
+
+    public void invalidate(K key) {
+        Node<K, V>[] removed = newNodeHolder();
+        data.computeIfPresent(key, (k, node) -> {
+            node.retired = true;
+            removed[0] = node;
+            return null;
+        });
+        if (removed[0] != null) {
+            Node<K, V> node = removed[0];
+            afterWrite(() -> onRemove(node));
+        }
+    }
+
+    /**
+     * 当前条目数(近似值，可能包含已过期但还没清理的条目)
+     */
+    public long estimatedSize() {
+        return data.size();
+    }
+
+    /**
+     * 立即执行一次维护
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+        if (pendingWrites.get() >= WRITE_BATCH_SIZE) {
+            tryMaintenance();
+        }
+    }
+
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 1.0 : (double) hit / total;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return expireAfterWriteNanos != Long.MAX_VALUE && now - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    /**
+     * 按线程选一个读缓冲区记录访问，缓冲区满了就顺手维护
+     */
+    private void afterRead(Node<K, V> node) {
+        ReadBuffer<K, V> buffer = readBuffers[stripeIndex()];
+        if (!buffer.offer(node)) {
+            tryMaintenance();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        long pending = pendingWrites.incrementAndGet();
+        if (pending > WRITE_BUFFER_MAX_PENDING) {
+            // 维护跟不上写入，写线程阻塞等待执行维护，避免写缓冲无限增长
+            cleanUp();
+        } else if (pending >= WRITE_BATCH_SIZE) {
+            tryMaintenance();
+        }
+    }
+
+    /**
+     * 拿到锁就维护，拿不到说明其他线程正在维护
+     * 释放锁之后再检查一次写缓冲，避免在维护线程释放锁之前积攒够一批的任务没人处理
+     */
+    private void tryMaintenance() {
+        while (evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+            if (pendingWrites.get() < WRITE_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private void maintenance() {
+        drainReadBuffers();
+        drainWriteBuffer();
+        expireEntries();
+        evictEntries();
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drainTo(this::onAccess);
+        }
+    }
+
+    private void drainWriteBuffer() {
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            pendingWrites.decrementAndGet();
+            task.run();
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.retired || node.queue == NONE) {
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == PROBATION) {
+            // 试用段中再次被访问，晋升到保护段
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedDeque.addLast(node);
+            demoteFromProtected();
+        } else {
+            protectedDeque.moveToBack(node);
+        }
+    }
+
+    private void onAdd(Node<K, V> node) {
+        if (node.retired || node.queue != NONE) {
+            return;
+        }
+        sketch.increment(node.key);
+        node.queue = WINDOW;
+        window.addLast(node);
+        writeOrder.addLast(node);
+        size++;
+    }
+
+    private void onUpdate(Node<K, V> node) {
+        if (node.retired || node.queue == NONE) {
+            return;
+        }
+        writeOrder.moveToBack(node);
+        onAccess(node);
+    }
+
+    private void onRemove(Node<K, V> node) {
+        unlink(node);
+    }
+
+    /**
+     * 保护段超出容量时，最久未访问的条目降级到试用段
+     */
+    private void demoteFromProtected() {
+        while (protectedDeque.size > protectedMaximum) {
+            Node<K, V> demoted = protectedDeque.pollFirst();
+            demoted.queue = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void expireEntries() {
+        if (expireAfterWriteNanos == Long.MAX_VALUE) {
+            return;
+        }
+        long now = System.nanoTime();
+        Node<K, V> node;
+        while ((node = writeOrder.peekFirst()) != null && isExpired(node, now)) {
+            if (retire(node)) {
+                expirations.increment();
+            }
+            unlink(node);
+        }
+    }
+
+    private void evictEntries() {
+        // (1)窗口超出容量，最久未访问的条目进入试用段，成为候选者
+        while (window.size > windowMaximum) {
+            Node<K, V> candidate = window.pollFirst();
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        // (2)总数超出容量，候选者(试用段尾部) 与 受害者(试用段头部) 比较频率
+        while (size > maximumSize) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = probation.peekLast();
+            if (victim == null) {
+                victim = protectedDeque.size > 0 ? protectedDeque.peekFirst() : window.peekFirst();
+                evict(victim);
+            } else if (victim == candidate || sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        if (retire(node)) {
+            evictions.increment();
+        }
+        unlink(node);
+    }
+
+    /**
+     * 从map中删除节点(只删除同一个节点，key已被重新放入新节点时不影响新节点)
+     *
+     * @return 这次调用是否真正删除
+     */
+    private boolean retire(Node<K, V> node) {
+        boolean[] removed = new boolean[1];
+        data.computeIfPresent(node.key, (k, current) -> {
+            if (current != node) {
+                return current;
+            }
+            node.retired = true;
+            removed[0] = true;
+            return null;
+        });
+        // 已被invalidate删除的节点也标记，防止onAdd重新链入
+        node.retired = true;
+        return removed[0];
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedDeque.remove(node);
+                break;
+            default:
+                return;
+        }
+        writeOrder.remove(node);
+        node.queue = NONE;
+        size--;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newNodeHolder() {
+        return (Node<K, V>[]) new Node<?, ?>[1];
+    }
+
+    private static int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (READ_BUFFER_STRIPES - 1);
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long writeTime;
+        // 已从map中删除
+        volatile boolean retired;
+
+        // 以下字段只在持有 evictionLock 时访问
+        int queue = NONE;
+        Node<K, V> prev;
+        Node<K, V> next;
+        Node<K, V> writePrev;
+        Node<K, V> writeNext;
+
+        Node(K key, V value, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * 侵入式双向链表，头部最旧、尾部最新
+     * writeOrder为true时使用节点的writePrev/writeNext，一个节点可以同时在访问顺序链表和写入顺序链表中
+     */
+    static final class NodeDeque<K, V> {
+        private final boolean writeOrder;
+        private Node<K, V> first;
+        private Node<K, V> last;
+        long size;
+
+        NodeDeque(boolean writeOrder) {
+            this.writeOrder = writeOrder;
+        }
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        Node<K, V> peekLast() {
+            return last;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node<K, V> node) {
+            setPrev(node, last);
+            setNext(node, null);
+            if (last == null) {
+                first = node;
+            } else {
+                setNext(last, node);
+            }
+            last = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            Node<K, V> prev = prev(node);
+            Node<K, V> next = next(node);
+            if (prev == null) {
+                if (first != node) {
+                    // 不在链表中
+                    return;
+                }
+                first = next;
+            } else {
+                setNext(prev, next);
+            }
+            if (next == null) {
+                last = prev;
+            } else {
+                setPrev(next, prev);
+            }
+            setPrev(node, null);
+            setNext(node, null);
+            size--;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private Node<K, V> prev(Node<K, V> node) {
+            return writeOrder ? node.writePrev : node.prev;
+        }
+
+        private Node<K, V> next(Node<K, V> node) {
+            return writeOrder ? node.writeNext : node.next;
+        }
+
+        private void setPrev(Node<K, V> node, Node<K, V> prev) {
+            if (writeOrder) {
+                node.writePrev = prev;
+            } else {
+                node.prev = prev;
+            }
+        }
+
+        private void setNext(Node<K, V> node, Node<K, V> next) {
+            if (writeOrder) {
+                node.writeNext = next;
+            } else {
+                node.next = next;
+            }
+        }
+    }
+
+    /**
+     * 有损的无锁环形缓冲区，多个读线程CAS tail写入，维护线程(持有锁)从head读出
+     * 满了或者CAS失败就丢弃这次访问记录
+     */
+    static final class ReadBuffer<K, V> {
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+
+        /**
+         * @return false表示缓冲区已满，需要维护
+         */
+        boolean offer(Node<K, V> node) {
+            long t = tail.get();
+            long size = t - head;
+            if (size >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                slots.lazySet((int) (t & (READ_BUFFER_SIZE - 1)), node);
+                // 写满一半就提醒维护，不必等到满了再丢弃
+                return size + 1 < READ_BUFFER_SIZE / 2;
+            }
+            return true;
+        }
+
+        void drainTo(Consumer<Node<K, V>> consumer) {
+            long h = head;
+            long t = tail.get();
+            for (; h < t; h++) {
+                int index = (int) (h & (READ_BUFFER_SIZE - 1));
+                Node<K, V> node = slots.get(index);
+                if (node == null) {
+                    // 已CAS tail但还没写入，下次再读
+                    break;
+                }
+                slots.lazySet(index, null);
+                consumer.accept(node);
+            }
+            head = h;
+        }
+    }
+
+    /**
+     * Count-Min 频率草图，每个计数器4位，一个long存16个计数器，每个key对应4个计数器，频率取最小值
+     * 累计增加次数达到 10 × 容量 时所有计数器减半(老化)，让过去的热点逐渐冷却
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long maximumSize) {
+            int capacity = (int) Math.min(maximumSize, 1 << 24);
+            table = new long[ceilingPowerOfTwo(Math.max(capacity, 8))];
+            tableMask = table.length - 1;
+            sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int i, int j) {
+            int offset = j << 2;
+            long mask = 0xfL << offset;
+            if ((table[i] & mask) != mask) {
+                table[i] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.concurrentprogramming.chapter6;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Treiber无锁栈: push、pop 都对栈顶CAS，失败就重试
+ * 高并发下所有线程竞争同一个栈顶，CAS失败率随线程数上升
+ *
+ * @author CZS
+ * @create 2026-10-20 03:00
+ **/
+public class TreiberStack<E> {
+    private final AtomicReference<Node<E>> top = new AtomicReference<>();
+
+    public void push(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        Node<E> node = new Node<>(e);
+        while (true) {
+            Node<E> current = top.get();
+            node.next = current;
+            if (top.compareAndSet(current, node)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 栈为空时返回null
+     */
+    public E pop() {
+        while (true) {
+            Node<E> current = top.get();
+            if (current == null) {
+                return null;
+            }
+            if (top.compareAndSet(current, current.next)) {
+                return current.item;
+            }
+        }
+    }
+
+    static final class Node<E> {
+        final E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+}